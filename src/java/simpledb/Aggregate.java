@@ -4,8 +4,9 @@ import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). An Aggregate computes either one aggregate grouped by at most one
+ * column, or, through {@link MultiAggregator}, any number of aggregates
+ * grouped by any number of columns in a single pass.
  */
 public class Aggregate extends Operator {
 
@@ -33,6 +34,17 @@ public class Aggregate extends Operator {
     private final int afield;
     private final int gfield;
     private final Aggregator.Op aop;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    // the budget of groups held in memory, or 0 for none
+    private final int maxGroups;
+
+    /**
+     * Number of pages of groups held in memory when no budget is given, as
+     * for {@link BlockNestedLoopJoin#DEFAULT_BLOCK_PAGES}.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
 
     private Aggregator agg;
     private OpIterator it;
@@ -49,8 +61,87 @@ public class Aggregate extends Operator {
         this.gfield = gfield;
         this.aop = aop;
 
+        this.afields = new int[]{afield};
+        this.gfields = gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield};
+        this.aops = new Aggregator.Op[]{aop};
+        this.maxGroups = 0;
+
+        gbfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
+    }
+
+    /**
+     * Constructor for several aggregates over the same groups. The output
+     * tuples hold the group fields followed by the aggregates, in the order
+     * given.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, BlockNestedLoopJoin.blockTuples(
+                MultiAggregator.tupleDesc(child.getTupleDesc(), gfields, afields),
+                DEFAULT_MEMORY_PAGES));
+    }
+
+    /**
+     * Constructor for several aggregates over the same groups, of which at
+     * most maxGroups are held in memory; the others are partitioned to disk
+     * by a {@link SpillingAggregator}.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     * @param maxGroups
+     *            the maximum number of groups held in memory
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int maxGroups) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregated field");
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + maxGroups);
+        this.child = child;
+        this.maxGroups = maxGroups;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        this.aop = aops[0];
+
         gbfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
-        agg = child.getTupleDesc().getFieldType(gfield) == Type.STRING_TYPE ?
+        // fail here rather than in open() if an operator does not fit its field
+        if (isMulti() || gfields.length > 0)
+            new MultiAggregator(child.getTupleDesc(), gfields, afields, aops);
+    }
+
+    /**
+     * @return true if this computes more than one aggregate or groups by
+     *         more than one field
+     */
+    private boolean isMulti() {
+        return afields.length > 1 || gfields.length > 1;
+    }
+
+    private Aggregator newAggregator() {
+        if (maxGroups > 0 && gfields.length > 0)
+            return new SpillingAggregator(child.getTupleDesc(), gfields, afields, aops, maxGroups);
+        if (isMulti())
+            return new MultiAggregator(child.getTupleDesc(), gfields, afields, aops);
+        return gbfieldType == Type.STRING_TYPE ?
                 new StringAggregator(gfield, gbfieldType, afield, aop) :
                 new IntegerAggregator(gfield, gbfieldType, afield, aop);
     }
@@ -72,7 +163,15 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	// groupFieldName()：如果这个Aggregate伴随有 groupby，返回groupby的field 的Name。
-        return gfield == Aggregator.NO_GROUPING ? null : it.getTupleDesc().getFieldName(0);
+        return gfield == Aggregator.NO_GROUPING ? null : getTupleDesc().getFieldName(0);
+    }
+
+    /**
+     * @return the group-by field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -89,8 +188,21 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	// some code goes here
-        return gfield ==Aggregator.NO_GROUPING ? it.getTupleDesc().getFieldName(0) :
-                it.getTupleDesc().getFieldName(1);
+        return getTupleDesc().getFieldName(gfields.length);
+    }
+
+    /**
+     * @return the aggregated field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operator of each of aggregateFields()
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     /**
@@ -101,6 +213,19 @@ public class Aggregate extends Operator {
         return this.aop;
     }
 
+    /**
+     * @return the number of partitions of groups written to disk by the last
+     *         open(), 0 if the groups fit in memory or there is no budget
+     */
+    public int getSpilledPartitions() {
+        return agg instanceof SpillingAggregator ? ((SpillingAggregator) agg).getSpilledPartitions() : 0;
+    }
+
+    /** @return the number of bytes of input written to disk by the last open() */
+    public long getSpilledBytes() {
+        return agg instanceof SpillingAggregator ? ((SpillingAggregator) agg).getSpilledBytes() : 0;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
@@ -108,14 +233,33 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	    // some code goes here
-        child.open();
         super.open();
-        while(child.hasNext())
-            agg.mergeTupleIntoGroup(child.next());
-        it = agg.iterator();
+        it = results();
         it.open();
     }
 
+    /**
+     * @return an unopened iterator over the output tuples, by default those
+     *         of the aggregator returned by aggregate()
+     */
+    protected OpIterator results() throws DbException, TransactionAbortedException {
+        agg = aggregate();
+        return agg.iterator();
+    }
+
+    /**
+     * Opens the child and merges all of its tuples into a new aggregator.
+     *
+     * @return the aggregator holding the groups to return
+     */
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        child.open();
+        Aggregator a = newAggregator();
+        while (child.hasNext())
+            a.mergeTupleIntoGroup(child.next());
+        return a;
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -147,6 +291,8 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// getTupleDesc()：返回这个aggregate计算结果tuple的TupleDesc。
+        if (isMulti() || maxGroups > 0)
+            return MultiAggregator.tupleDesc(child.getTupleDesc(), gfields, afields);
         Type[] typeArray;
         String[] fieldName;
         if(gfield == Aggregator.NO_GROUPING){
@@ -165,6 +311,8 @@ public class Aggregate extends Operator {
 	// some code goes here
         super.close();
         it.close();
+        if (agg instanceof SpillingAggregator)
+            ((SpillingAggregator) agg).delete();
     }
 
     @Override
@@ -34,10 +34,26 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, Catalog.assignTableId(f));
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file with an explicit
+	 * table id, e.g. one the catalog persisted in an earlier run.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param tableid - the id returned by getId()
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int tableid) {
 		this.f = f;
-		this.tableid = f.getAbsoluteFile().hashCode();
+		this.tableid = tableid;
 		this.keyField = key;
 		this.td = td;
+		// the file may have been replaced since DirectIO last read it
+		DirectIO.close(f);
 	}
 
 	/**
@@ -48,11 +64,8 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
-	 * you will need to generate this tableid somewhere and ensure that each
-	 * BTreeFile has a "unique id," and that you always return the same value for
-	 * a particular BTreeFile. We suggest hashing the absolute file name of the
-	 * file underlying the BTreeFile, i.e. f.getAbsoluteFile().hashCode().
+	 * Returns an ID uniquely identifying this BTreeFile. The id is a small
+	 * dense integer assigned by the catalog (see Catalog.assignTableId).
 	 * 
 	 * @return an ID uniquely identifying this BTreeFile.
 	 */
@@ -78,13 +91,13 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
+			// DirectIO falls back to a plain RandomAccessFile read unless
+			// direct I/O is enabled
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = DirectIO.read(f, 0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -98,12 +111,8 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				long offset = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
+				int retval = DirectIO.read(f, offset, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -127,17 +136,14 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	// see DbFile.java for javadocs
+	public PageId getPageId(int pgNo, int pgcateg) {
+		return new BTreePageId(tableid, pgNo, pgcateg);
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
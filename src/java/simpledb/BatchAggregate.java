@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchAggregate is the vectorized version of {@link Aggregate}. Each input
+ * batch is processed in two tight loops: one maps every row to a dense group
+ * number, the other folds the aggregate column into per-group long
+ * accumulators. Results match Aggregate's (AVG truncates to an int as
+ * IntegerAggregator does) and are returned a ColumnBatch at a time.
+ * <p>
+ * MIN, MAX, SUM, AVG and COUNT are supported over int columns, COUNT over
+ * string columns.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient IntHashIndex intGroups;
+    private transient HashMap<String, Integer> stringGroups;
+    private transient ArrayList<String> stringKeys;
+    private long[] acc;
+    private long[] counts;
+    private int numGroups;
+    private int[] groupOf = new int[ColumnBatch.DEFAULT_SIZE];
+
+    private transient ColumnBatch out;
+    private int nextGroup;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The BatchOpIterator that is feeding us rows.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @throws UnsupportedOperationException if aop cannot be computed over
+     *             afield's type
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc ctd = child.getTupleDesc();
+        boolean intAgg = ctd.getFieldType(afield) == Type.INT_TYPE;
+        switch (aop) {
+        case MIN: case MAX: case SUM: case AVG:
+            if (!intAgg)
+                throw new UnsupportedOperationException(aop + " over a string field");
+            break;
+        case COUNT:
+            break;
+        default:
+            throw new UnsupportedOperationException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{ctd.getFieldName(afield)});
+        else
+            td = new TupleDesc(new Type[]{ctd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{ctd.getFieldName(gfield), ctd.getFieldName(afield)});
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        intGroups = new IntHashIndex();
+        stringGroups = new HashMap<String, Integer>();
+        stringKeys = new ArrayList<String>();
+        acc = new long[64];
+        counts = new long[64];
+        numGroups = 0;
+        ColumnBatch b;
+        while ((b = child.nextBatch()) != null)
+            merge(b);
+        out = new ColumnBatch(td);
+        nextGroup = 0;
+    }
+
+    private void merge(ColumnBatch b) {
+        int n = b.size();
+        if (groupOf.length < n)
+            groupOf = new int[n];
+        assignGroups(b, n);
+
+        int[] g = groupOf;
+        for (int i = 0; i < n; i++)
+            counts[g[i]]++;
+        if (aop == Aggregator.Op.COUNT)
+            return;
+        int[] v = b.intColumn(afield);
+        switch (aop) {
+        case MIN:
+            for (int i = 0; i < n; i++)
+                if (v[i] < acc[g[i]]) acc[g[i]] = v[i];
+            break;
+        case MAX:
+            for (int i = 0; i < n; i++)
+                if (v[i] > acc[g[i]]) acc[g[i]] = v[i];
+            break;
+        default: // SUM, AVG
+            for (int i = 0; i < n; i++)
+                acc[g[i]] += v[i];
+            break;
+        }
+    }
+
+    private void assignGroups(ColumnBatch b, int n) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            Arrays.fill(groupOf, 0, n, 0);
+            ensureGroups(1);
+        } else if (b.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE) {
+            int[] keys = b.intColumn(gfield);
+            for (int i = 0; i < n; i++)
+                groupOf[i] = intGroups.getOrAdd(keys[i]);
+            ensureGroups(intGroups.size());
+        } else {
+            String[] keys = b.stringColumn(gfield);
+            for (int i = 0; i < n; i++) {
+                Integer g = stringGroups.get(keys[i]);
+                if (g == null) {
+                    g = stringKeys.size();
+                    stringGroups.put(keys[i], g);
+                    stringKeys.add(keys[i]);
+                }
+                groupOf[i] = g;
+            }
+            ensureGroups(stringKeys.size());
+        }
+    }
+
+    private void ensureGroups(int n) {
+        if (n > acc.length) {
+            int cap = Math.max(n, acc.length * 2);
+            acc = Arrays.copyOf(acc, cap);
+            counts = Arrays.copyOf(counts, cap);
+        }
+        long init = aop == Aggregator.Op.MIN ? Long.MAX_VALUE
+                : aop == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+        for (int g = numGroups; g < n; g++)
+            acc[g] = init;
+        numGroups = Math.max(numGroups, n);
+    }
+
+    private int result(int g) {
+        switch (aop) {
+        case COUNT:
+            return (int) counts[g];
+        case AVG:
+            return (int) (acc[g] / counts[g]);
+        default:
+            return (int) acc[g];
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("Operator not yet open");
+        out.clear();
+        int n = Math.min(out.capacity(), numGroups - nextGroup);
+        if (n <= 0)
+            return null;
+        int valueCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] values = out.intColumn(valueCol);
+        for (int i = 0; i < n; i++)
+            values[i] = result(nextGroup + i);
+        if (gfield != Aggregator.NO_GROUPING) {
+            if (td.getFieldType(0) == Type.INT_TYPE) {
+                int[] keys = out.intColumn(0);
+                for (int i = 0; i < n; i++)
+                    keys[i] = intGroups.keyAt(nextGroup + i);
+            } else {
+                String[] keys = out.stringColumn(0);
+                for (int i = 0; i < n; i++)
+                    keys[i] = stringKeys.get(nextGroup + i);
+            }
+        }
+        out.setSize(n);
+        nextGroup += n;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    public void close() {
+        child.close();
+        intGroups = null;
+        stringGroups = null;
+        stringKeys = null;
+        acc = null;
+        counts = null;
+        out = null;
+    }
+}
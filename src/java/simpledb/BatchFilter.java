@@ -0,0 +1,139 @@
+package simpledb;
+
+/**
+ * BatchFilter is the vectorized version of {@link Filter}. For each batch it
+ * evaluates the predicate over the whole column in one loop specialized for
+ * the comparison operator, then compacts the batch to the matching rows.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+    private final int[] sel = new int[ColumnBatch.DEFAULT_SIZE];
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * rows to filter from.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int[] s = b.size() <= sel.length ? sel : new int[b.size()];
+            int n;
+            if (b.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE)
+                n = select(b.intColumn(p.getField()), b.size(), p.getOp(),
+                        ((IntField) p.getOperand()).getValue(), s);
+            else
+                n = select(b.stringColumn(p.getField()), b.size(), p.getOp(),
+                        ((StringField) p.getOperand()).getValue(), s);
+            if (n > 0) {
+                if (n < b.size())
+                    b.select(s, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the indexes i in [0, size) with col[i] op v into sel.
+     *
+     * @return the number of matching rows
+     */
+    static int select(int[] col, int size, Predicate.Op op, int v, int[] sel) {
+        int n = 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < size; i++)
+                if (col[i] == v) sel[n++] = i;
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < size; i++)
+                if (col[i] != v) sel[n++] = i;
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < size; i++)
+                if (col[i] > v) sel[n++] = i;
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < size; i++)
+                if (col[i] >= v) sel[n++] = i;
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < size; i++)
+                if (col[i] < v) sel[n++] = i;
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < size; i++)
+                if (col[i] <= v) sel[n++] = i;
+            break;
+        }
+        return n;
+    }
+
+    /**
+     * Writes the indexes i in [0, size) with col[i] op v into sel, using the
+     * same semantics as StringField.compare.
+     *
+     * @return the number of matching rows
+     */
+    static int select(String[] col, int size, Predicate.Op op, String v, int[] sel) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            boolean match;
+            if (op == Predicate.Op.LIKE) {
+                match = col[i].contains(v);
+            } else {
+                int c = col[i].compareTo(v);
+                switch (op) {
+                case EQUALS: match = c == 0; break;
+                case NOT_EQUALS: match = c != 0; break;
+                case GREATER_THAN: match = c > 0; break;
+                case GREATER_THAN_OR_EQ: match = c >= 0; break;
+                case LESS_THAN: match = c < 0; break;
+                default: match = c <= 0; break;
+                }
+            }
+            if (match)
+                sel[n++] = i;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
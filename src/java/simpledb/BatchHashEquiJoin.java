@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the vectorized version of {@link HashEquiJoin}. On
+ * open() it copies all of child2 (the build side) into memory and chains its
+ * rows by join key; every batch of child1 is then probed against the chains.
+ * Output rows are child1's fields followed by child2's, as in HashEquiJoin,
+ * though not necessarily in the same order.
+ * <p>
+ * Int join keys are looked up through an {@link IntHashIndex}, so neither
+ * side boxes its keys.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CAP = ColumnBatch.DEFAULT_SIZE;
+
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKey;
+
+    // build side: copied batches; row r lives at (r / CAP, r % CAP)
+    private transient ArrayList<ColumnBatch> build;
+    private transient IntHashIndex intGroups;
+    private transient HashMap<String, Integer> stringGroups;
+    private int[] groupHead;
+    private int[] next;
+
+    // probe state
+    private transient ColumnBatch out;
+    private transient ColumnBatch left;
+    private int leftRow;
+    private int chain;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left (probe) relation to join
+     * @param child2
+     *            Iterator for the right (build) relation to join
+     * @throws UnsupportedOperationException if p is not an equality predicate
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new UnsupportedOperationException("hash join requires an EQUALS predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKey = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buildTable();
+        out = new ColumnBatch(comboTD);
+        left = null;
+        chain = -1;
+    }
+
+    private void buildTable() throws DbException, TransactionAbortedException {
+        build = new ArrayList<ColumnBatch>();
+        intGroups = new IntHashIndex();
+        stringGroups = new HashMap<String, Integer>();
+        groupHead = new int[64];
+        next = new int[CAP];
+        int f = pred.getField2();
+        ColumnBatch b;
+        while ((b = child2.nextBatch()) != null) {
+            int base = build.size() * CAP;
+            build.add(b.copy());
+            if (next.length < base + CAP)
+                next = Arrays.copyOf(next, next.length * 2);
+            for (int i = 0; i < b.size(); i++) {
+                int groups = intKey ? intGroups.size() : stringGroups.size();
+                int g;
+                if (intKey) {
+                    g = intGroups.getOrAdd(b.getInt(f, i));
+                } else {
+                    Integer boxed = stringGroups.get(b.getString(f, i));
+                    if (boxed == null) {
+                        boxed = stringGroups.size();
+                        stringGroups.put(b.getString(f, i), boxed);
+                    }
+                    g = boxed;
+                }
+                if (g == groupHead.length)
+                    groupHead = Arrays.copyOf(groupHead, g * 2);
+                int r = base + i;
+                // groups are numbered densely, so g == groups means a new key
+                next[r] = g == groups ? -1 : groupHead[g];
+                groupHead[g] = r;
+            }
+        }
+    }
+
+    private int lookup(ColumnBatch b, int row) {
+        if (intKey)
+            return intGroups.get(b.getInt(pred.getField1(), row));
+        Integer g = stringGroups.get(b.getString(pred.getField1(), row));
+        return g == null ? -1 : g;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("Operator not yet open");
+        out.clear();
+        while (!out.isFull()) {
+            if (chain >= 0) {
+                out.addJoinedRow(left, leftRow, build.get(chain / CAP), chain % CAP);
+                chain = next[chain];
+                if (chain < 0)
+                    leftRow++;
+                continue;
+            }
+            if (left == null || leftRow >= left.size()) {
+                left = child1.nextBatch();
+                leftRow = 0;
+                if (left == null)
+                    break;
+                continue;
+            }
+            int g = lookup(left, leftRow);
+            if (g < 0)
+                leftRow++;
+            else
+                chain = groupHead[g];
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        left = null;
+        chain = -1;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        build = null;
+        intGroups = null;
+        stringGroups = null;
+        groupHead = null;
+        next = null;
+        out = null;
+        left = null;
+    }
+}
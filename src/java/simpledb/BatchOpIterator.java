@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the vectorized counterpart of {@link OpIterator}: instead
+ * of one Tuple per hasNext()/next() pair, each call to nextBatch() returns up
+ * to {@link ColumnBatch#DEFAULT_SIZE} rows stored as primitive columns.
+ * <p>
+ * The usual life cycle applies: open() before nextBatch(), close() when done.
+ * Use {@link TupleToBatch} to feed a tuple-at-a-time operator into a batch
+ * operator and {@link BatchToTuple} to go the other way.
+ * <p>
+ * {@link LogicalPlan} does not build batch plans, which are built
+ * explicitly. For the query shapes the batch operators cover, the planner
+ * already picks plans that are as fast (see
+ * simpledb.systemtest.BatchBenchmark): a {@link FusedScan} for a heap file
+ * scan with filters and an aggregate, a {@link SeqScan} with its predicates
+ * pushed down for the filters alone, and {@link ParallelHashJoin} for an
+ * equi-join. A batch plan also ends in a BatchToTuple that builds every
+ * output tuple again.
+ */
+public interface BatchOpIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next non-empty batch of rows, or null when there are no
+     * more. The returned batch is owned by this iterator and is overwritten
+     * by the next call.
+     *
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows this iterator returns.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the vectorized version of {@link SeqScan}: it reads a
+ * table's tuples in storage order and returns them a ColumnBatch at a time.
+ * Heap files are read page by page straight from the buffer pool, each page
+ * copying its fields into the batch's columns from its bytes without
+ * building tuples; other DbFiles are read through their DbFileIterator.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private transient ColumnBatch batch;
+    private transient HeapFile heapFile;
+    private transient DbFileIterator it;
+    private int pageNo;
+    private transient HeapPage page;
+    private int slot;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.td = SeqScan.prefixedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        batch = new ColumnBatch(getTupleDesc());
+        if (file instanceof HeapFile) {
+            heapFile = (HeapFile) file;
+            pageNo = 0;
+            page = null;
+        } else {
+            it = file.iterator(tid);
+            it.open();
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        if (heapFile != null) {
+            while (!batch.isFull()) {
+                if (page == null) {
+                    if (pageNo >= heapFile.numPages())
+                        break;
+                    page = (HeapPage) Database.getBufferPool().getPage(tid, tableid, pageNo++, 0,
+                            Permissions.READ_ONLY);
+                    slot = 0;
+                }
+                slot = page.fill(batch, slot);
+                if (slot >= page.getNumSlots())
+                    page = null;
+            }
+        } else {
+            while (!batch.isFull() && it.hasNext())
+                batch.addTuple(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (heapFile != null) {
+            pageNo = 0;
+            page = null;
+        } else {
+            it.rewind();
+        }
+    }
+
+    /**
+     * @return the table's TupleDesc with every field name prefixed by the
+     *         alias, as {@link SeqScan#getTupleDesc} returns it
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+        heapFile = null;
+        page = null;
+        batch = null;
+    }
+}
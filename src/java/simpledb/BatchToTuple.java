@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts a {@link BatchOpIterator} to the tuple-at-a-time {@link OpIterator}
+ * interface, so a vectorized plan fragment can feed the existing operators
+ * (OrderBy, Join, ...) or a client that calls hasNext()/next().
+ */
+public class BatchToTuple implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient ColumnBatch batch;
+    private int row;
+    private boolean open = false;
+
+    /**
+     * @param child
+     *            the batch iterator to read from
+     */
+    public BatchToTuple(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("Operator not yet open");
+        while (batch == null || row >= batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.getTuple(row++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        open = false;
+    }
+}
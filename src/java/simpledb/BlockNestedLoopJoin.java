@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BlockNestedLoopJoin is a {@link Join} that reads the outer relation a block
+ * at a time. It buffers up to blockSize tuples of child1, then scans child2
+ * once and tests every inner tuple against the whole block, so child2 is
+ * rewound once per block instead of once per outer tuple.
+ * <p>
+ * Output rows are the same as those of Join, but within a block they are
+ * ordered by inner tuple rather than by outer tuple.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of pages of outer tuples buffered per block when no block size
+     * is given: half of the default buffer pool, leaving the rest for the
+     * inner scan.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = BufferPool.DEFAULT_PAGES / 2;
+
+    private final int blockSize;
+    private final JoinPredicate p;
+
+    private transient OpIterator outer;
+    private transient OpIterator inner;
+    private transient Tuple[] block;
+    private int blockLen;
+    private int blockPos;
+    private transient Tuple current;
+
+    /**
+     * Constructor. Buffers {@link #DEFAULT_BLOCK_PAGES} pages worth of outer
+     * tuples per block.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, blockTuples(child1.getTupleDesc(), DEFAULT_BLOCK_PAGES));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            the number of outer tuples buffered per scan of child2
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int blockSize) {
+        super(p, child1, child2);
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        this.blockSize = blockSize;
+        this.p = p;
+    }
+
+    /**
+     * Returns the number of tuples of the given schema that fit on the given
+     * number of heap pages.
+     */
+    public static int blockTuples(TupleDesc td, int pages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, pages * perPage);
+    }
+
+    /** @return the number of outer tuples buffered per scan of child2 */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        outer = children[0];
+        inner = children[1];
+        block = new Tuple[blockSize];
+        super.open();
+        loadBlock();
+    }
+
+    public void close() {
+        super.close();
+        block = null;
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        loadBlock();
+    }
+
+    /**
+     * Fills the block with the next outer tuples.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        blockLen = 0;
+        while (blockLen < blockSize && outer.hasNext())
+            block[blockLen++] = outer.next();
+        // drop references to the previous block
+        for (int i = blockLen; i < block.length && block[i] != null; i++)
+            block[i] = null;
+        current = null;
+        blockPos = 0;
+        return blockLen > 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Each inner tuple is tested against every tuple of the
+     * current block before the next inner tuple is read.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        TupleDesc td = getTupleDesc();
+        while (blockLen > 0) {
+            if (current != null) {
+                while (blockPos < blockLen) {
+                    Tuple t1 = block[blockPos++];
+                    if (p.filter(t1, current))
+                        return new JoinedTuple(td, t1, current);
+                }
+            }
+            if (inner.hasNext()) {
+                current = inner.next();
+                blockPos = 0;
+            } else if (loadBlock()) {
+                inner.rewind();
+            }
+        }
+        return null;
+    }
+}
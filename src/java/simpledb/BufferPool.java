@@ -6,7 +6,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 缓冲池（SimpleDB中的类“ BufferPool”）负责
@@ -47,10 +47,11 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     private final int numPages;
-    private final ConcurrentHashMap<PageId, Page> pageStore;
-    private final ConcurrentHashMap<PageId, Integer> pageAge;//add for lab 4
+    private final PageTable pageTable;//one probe finds both the cached page and its locks
+    private int cachedPages;
     private int age;//add for lab 4
-    private PageLockManager lockManager;//add for lab 4
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     private class Lock{//add for lab 4
         TransactionId tid;
@@ -68,101 +69,203 @@ public class BufferPool {
             return tid.equals(o_lock.tid) && lockType == o_lock.lockType;
         }
     }
-    private class PageLockManager{// add for lab4
-        ConcurrentHashMap<PageId,Vector<Lock>> lockMap;
-        public PageLockManager(){
-            lockMap = new ConcurrentHashMap<PageId,Vector<Lock>>();
+
+    /**
+     * Everything the buffer pool knows about one page: the cached copy (if
+     * any), its age for eviction, and the locks held on it. A frame exists
+     * while the page is cached or locked.
+     */
+    private class Frame{
+        final long key;
+        final PageId pid;
+        Page page;
+        int age;
+        final Vector<Lock> locks = new Vector<>();
+
+        Frame(long key, PageId pid){
+            this.key = key;
+            this.pid = pid;
         }
-        public synchronized boolean acquireLock(PageId pid,TransactionId tid,int lockType){
-            if(lockMap.get(pid) == null){//if no lock held on pid
-                Lock lock = new Lock(tid,lockType);
-                Vector<Lock> locks = new Vector<>();
-                locks.add(lock);
-                lockMap.put(pid,locks);
-                return true;
-            }
-            // if some Tx holds lock on pid
-            // locks.size() won't be 0 because releaseLock will remove 0 size locks from lockMap
-            Vector<Lock> locks = lockMap.get(pid);
-            // if tid already holds lock on pid
-            for(Lock lock:locks){
-                if(lock.tid == tid){
-                    // already hold that lock
-                    if(lock.lockType == lockType)
-                        return true;
-                    // already hold exclusive lock when acquire shared lock
-                    if(lock.lockType == 1)
-                        return true;
-                    // already hold shared lock,upgrade to exclusive lock
-                    if(locks.size()==1){
-                        lock.lockType = 1;
-                        return true;
-                    }else{
-                        return false;
-                    }
-                }
-            }
-            // if the lock is a exclusive lock
-            if (locks.get(0).lockType ==1){
-                assert locks.size() == 1 : "exclusive lock can't coexist with other locks";
-                return false;
+    }
+
+    /**
+     * Open-addressing hash table from packed page keys (see pageKey) to
+     * frames. Linear probing, backward-shift deletion, no boxing. Guarded by
+     * the BufferPool monitor.
+     */
+    private class PageTable{
+        private long[] keys = new long[64];
+        private Frame[] frames = new Frame[64];
+        private int size;
+
+        private int slot(long key){
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (keys.length - 1);
+        }
+
+        Frame get(long key){
+            int mask = keys.length - 1;
+            for(int i = slot(key); frames[i] != null; i = (i + 1) & mask){
+                if(keys[i] == key)
+                    return frames[i];
             }
-            // if no exclusive lock is held, there could be multiple shared locks
-            if(lockType == 0){
-                Lock lock = new Lock(tid,0);
-                locks.add(lock);
-                lockMap.put(pid,locks);
-                return true;
+            return null;
+        }
+
+        void put(Frame f){
+            if(2 * (size + 1) > keys.length)
+                resize(keys.length * 2);
+            insert(f);
+            size++;
+        }
+
+        private void insert(Frame f){
+            int mask = keys.length - 1;
+            int i = slot(f.key);
+            while(frames[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = f.key;
+            frames[i] = f;
+        }
+
+        private void resize(int capacity){
+            Frame[] old = frames;
+            keys = new long[capacity];
+            frames = new Frame[capacity];
+            for(Frame f : old){
+                if(f != null)
+                    insert(f);
             }
-            // can not acquire a exclusive lock when there are shard locks on pid
-            return false;
         }
-        public synchronized boolean releaseLock(PageId pid,TransactionId tid){
-            // if not a single lock is held on pid
-            assert lockMap.get(pid) != null : "page not locked!";
-            Vector<Lock> locks = lockMap.get(pid);
-            for(int i=0;i<locks.size();++i){
-                Lock lock = locks.get(i);
-                // release lock
-                if(lock.tid == tid){
-                    locks.remove(lock);
-                    // if the last lock is released
-                    // remove 0 size locks from lockMap
-                    if(locks.size() == 0)
-                        lockMap.remove(pid);
-                    return true;
+
+        void remove(long key){
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while(frames[i] != null && keys[i] != key)
+                i = (i + 1) & mask;
+            if(frames[i] == null)
+                return;
+            frames[i] = null;
+            size--;
+            // shift back any later entry of the probe run that may no longer
+            // be reachable from its home slot
+            for(int j = (i + 1) & mask; frames[j] != null; j = (j + 1) & mask){
+                int home = slot(keys[j]);
+                if(((j - home) & mask) >= ((j - i) & mask)){
+                    keys[i] = keys[j];
+                    frames[i] = frames[j];
+                    frames[j] = null;
+                    i = j;
                 }
             }
-            // not found tid in tids which lock on pid
-            return false;
         }
 
-        public synchronized boolean holdsLock(PageId pid,TransactionId tid){
-            // if not a single lock is held on pid
-            if(lockMap.get(pid) == null)
-                return false;
-            Vector<Lock> locks = lockMap.get(pid);
-            // check if a tid exist in pid's vector of locks
-            for(Lock lock:locks){
-                if(lock.tid == tid){
+        /** @return the number of slots; iterate them with at() */
+        int capacity(){
+            return frames.length;
+        }
+
+        /**
+         * @return the frame in slot i, or null. remove() may shift a later
+         *         frame into the slot it empties, or one from the start of
+         *         the table to its end.
+         */
+        Frame at(int i){
+            return frames[i];
+        }
+    }
+
+    /**
+     * Packs a page's identity into a single long: the table id in the high
+     * 32 bits, the BTree page category in the next 2 and the page number in
+     * the low 30.
+     *
+     * @param tableId the id of the table the page belongs to
+     * @param pgNo the page number within the table
+     * @param pgcateg the BTreePageId category, or 0 for heap pages
+     * @throws IllegalArgumentException if pgNo is negative or not below 2^30,
+     *         as two pages would then share a key
+     */
+    public static long pageKey(int tableId, int pgNo, int pgcateg) {
+        if ((pgNo & ~0x3FFFFFFF) != 0)
+            throw new IllegalArgumentException("page number " + pgNo + " does not fit in the 30 bits of a page key");
+        return ((long) tableId << 32) | ((long) (pgcateg & 3) << 30) | (pgNo & 0x3FFFFFFFL);
+    }
+
+    /** @return pageKey() of the given page id */
+    public static long pageKey(PageId pid) {
+        int pgcateg = pid instanceof BTreePageId ? ((BTreePageId) pid).pgcateg() : 0;
+        return pageKey(pid.getTableId(), pid.getPageNumber(), pgcateg);
+    }
+
+    private boolean acquireLock(Frame frame, TransactionId tid, int lockType){
+        Vector<Lock> locks = frame.locks;
+        if(locks.isEmpty()){//if no lock held on pid
+            locks.add(new Lock(tid,lockType));
+            return true;
+        }
+        // if tid already holds lock on pid
+        for(Lock lock:locks){
+            if(lock.tid == tid){
+                // already hold that lock
+                if(lock.lockType == lockType)
+                    return true;
+                // already hold exclusive lock when acquire shared lock
+                if(lock.lockType == 1)
                     return true;
+                // already hold shared lock,upgrade to exclusive lock
+                if(locks.size()==1){
+                    lock.lockType = 1;
+                    return true;
+                }else{
+                    return false;
                 }
             }
+        }
+        // if the lock is a exclusive lock
+        if (locks.get(0).lockType ==1){
+            assert locks.size() == 1 : "exclusive lock can't coexist with other locks";
             return false;
         }
+        // if no exclusive lock is held, there could be multiple shared locks
+        if(lockType == 0){
+            locks.add(new Lock(tid,0));
+            return true;
+        }
+        // can not acquire a exclusive lock when there are shard locks on pid
+        return false;
+    }
+
+    private boolean releaseLock(Frame frame, TransactionId tid){
+        Vector<Lock> locks = frame.locks;
+        for(int i=0;i<locks.size();++i){
+            // release lock
+            if(locks.get(i).tid == tid){
+                locks.remove(i);
+                dropIfUnused(frame);
+                return true;
+            }
+        }
+        // not found tid in tids which lock on pid
+        return false;
     }
+
+    private void dropIfUnused(Frame frame){
+        if(frame.page == null && frame.locks.isEmpty())
+            pageTable.remove(frame.key);
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // BufferPool(int numPages)：BufferPool的构造函数，创建一个BufferPool实例缓存最大numPages数量的Pages，通过<PageId,Page>类型的pageStore哈希表管理缓存pages。
+        // BufferPool(int numPages)：BufferPool的构造函数，创建一个BufferPool实例缓存最大numPages数量的Pages，通过以long为键的pageTable同时管理缓存pages和页上的锁。
         this.numPages = numPages;
-        pageStore = new ConcurrentHashMap<PageId, Page>();
-        pageAge = new ConcurrentHashMap<PageId, Integer>();
+        pageTable = new PageTable();
+        cachedPages = 0;
         age = 0;
-        lockManager = new PageLockManager();
     }
     // getPageSize()：获得每个Page大小，默认是4096。
     public static int getPageSize() {
@@ -199,36 +302,115 @@ public class BufferPool {
         // getPage(TransactionId tid, PageId pid, Permissions perm)：根据pid获取Page，如果在pageStore中，返回对应Page;
         // 如果不在就添加进哈希表，如果缓存的page数量超过缓存最大numPages数量，调用evictPage()淘汰一个页。
         // 获得page时在tid代表的Transaction上加锁，perm代表锁的类型，保证使用返回Page时的安全性。
+        return getPage(tid, pageKey(pid), pid, pid.getTableId(), pid.getPageNumber(), 0, perm);
+    }
+
+    /**
+     * Like getPage(TransactionId, PageId, Permissions), but identifies the
+     * page by its primitive components so that a buffer pool hit allocates
+     * nothing. A PageId is only built (via DbFile.getPageId) when the page
+     * has to be read from disk.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param tableId the id of the table the page belongs to
+     * @param pgNo the page number within the table
+     * @param pgcateg the BTreePageId category, or 0 for heap pages
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, int tableId, int pgNo, int pgcateg, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pageKey(tableId, pgNo, pgcateg), null, tableId, pgNo, pgcateg, perm);
+    }
+
+    private Page getPage(TransactionId tid, long key, PageId pid, int tableId, int pgNo, int pgcateg,
+                         Permissions perm) throws TransactionAbortedException, DbException {
         int lockType;
         if (perm == Permissions.READ_ONLY){
             lockType = 0;
         } else lockType = 1;
-        boolean lockAcquired = false;
+        Frame frame;
         //------------------------ex5lb4----------------------------
         long start = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000) + 1000;
-        while(!lockAcquired){
-            long cur = System.currentTimeMillis();
-            if(cur - start > timeout)
+        long timeout = -1;
+        while(true){
+            synchronized (this){
+                frame = pageTable.get(key);
+                if(frame == null){
+                    if(pid == null)
+                        pid = Database.getCatalog().getDatabaseFile(tableId).getPageId(pgNo, pgcateg);
+                    frame = new Frame(key, pid);
+                    pageTable.put(frame);
+                }
+                if(acquireLock(frame, tid, lockType)){
+                    if(frame.page != null){
+                        hits.incrementAndGet();
+                        return frame.page;
+                    }
+                    break;
+                }
+            }
+            if(timeout < 0)
+                timeout = new Random().nextInt(2000) + 1000;
+            if(System.currentTimeMillis() - start > timeout)
                 // TransactionAbortedException means detect a deadlock
                 // after upper caller catch TransactionAbortedException
                 // will call transactionComplete to abort this transition
                 // give someone else a chance: abort the transaction
                 throw new TransactionAbortedException();
-            lockAcquired = lockManager.acquireLock(pid, tid, lockType);
+            Thread.yield();
         }
         //----------------------------------------------------------
-        if(!pageStore.containsKey(pid)){
-            DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbfile.readPage(pid);
-            if(pageStore.size() == numPages){
+        // read outside the monitor; the lock we now hold keeps the frame alive
+        misses.incrementAndGet();
+        DbFile dbfile = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+        Page page = dbfile.readPage(frame.pid);
+        synchronized (this){
+            if(frame.page != null)// another reader got there first
+                return frame.page;
+            if(cachedPages >= numPages){
                 evictPage();
             }
-            pageStore.put(pid, page);
-            pageAge.put(pid, age ++);
+            frame.page = page;
+            frame.age = age ++;
+            cachedPages++;
             return page;
         }
-        return pageStore.get(pid);
+    }
+
+    /**
+     * @return the number of getPage() calls served from the buffer pool
+     *         since it was created or since the last resetStats().
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage() calls that had to read the page from
+     *         disk since it was created or since the last resetStats().
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of getPage() calls served without a disk read.
+     * Run a representative workload against pools of several sizes and pick
+     * the smallest size past which the hit rate stops improving; see the
+     * "Sizing the buffer pool" section of README.md.
+     *
+     * @return the hit rate in [0, 1], or 0 if no pages have been requested
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Resets the hit and miss counters. */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
     }
 
     /**
@@ -240,10 +422,12 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
-    public void releasePage(TransactionId tid, PageId pid) {
+    public synchronized void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        lockManager.releaseLock(pid, tid);
+        Frame frame = pageTable.get(pageKey(pid));
+        if(frame != null)
+            releaseLock(frame, tid);
     }
 
     /**
@@ -258,10 +442,19 @@ public class BufferPool {
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
-    public boolean holdsLock(TransactionId tid, PageId p) {
+    public synchronized boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return lockManager.holdsLock(p, tid);
+        Frame frame = pageTable.get(pageKey(p));
+        if(frame == null)
+            return false;
+        // check if a tid exist in pid's vector of locks
+        for(Lock lock:frame.locks){
+            if(lock.tid == tid){
+                return true;
+            }
+        }
+        return false;
     }
 
     /*
@@ -269,13 +462,13 @@ public class BufferPool {
      * restorePages
      */
      private synchronized void restorePages(TransactionId tid){
-         for (PageId pid : pageStore.keySet()){
-             Page page = pageStore.get(pid);
-             if(page.isDirty() == tid){
-                 int tableId = pid.getTableId();
+         for (int i = 0; i < pageTable.capacity(); i++){
+             Frame frame = pageTable.at(i);
+             Page page = frame == null ? null : frame.page;
+             if(page != null && page.isDirty() == tid){
+                 int tableId = frame.pid.getTableId();
                  DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-                 Page pageFromDisk = file.readPage(pid);
-                 pageStore.put(pid, pageFromDisk);
+                 frame.page = file.readPage(frame.pid);
              }
          }
      }
@@ -296,9 +489,15 @@ public class BufferPool {
         } else{
             restorePages(tid);
         }
-        for(PageId pid : pageStore.keySet()){
-            if(holdsLock(tid, pid))
-                releasePage(tid, pid);
+        synchronized (this){
+            for(int i = 0; i < pageTable.capacity(); ){
+                Frame frame = pageTable.at(i);
+                // a frame dropped here may have been replaced by a later one;
+                // one visited twice no longer holds tid's lock
+                if(frame != null && releaseLock(frame, tid) && pageTable.at(i) != frame)
+                    continue;
+                i++;
+            }
         }
     }
 
@@ -327,13 +526,23 @@ public class BufferPool {
         updateBufferPool(f.insertTuple(tid, t), tid);
     }
 
-    private void updateBufferPool(ArrayList<Page> pagelist, TransactionId tid) throws DbException {
+    private synchronized void updateBufferPool(ArrayList<Page> pagelist, TransactionId tid) throws DbException {
         for(Page p: pagelist){
             p.markDirty(true, tid);
-            if(pageStore.size() > numPages){
-                evictPage();
+            long key = pageKey(p.getId());
+            Frame frame = pageTable.get(key);
+            if(frame == null){
+                frame = new Frame(key, p.getId());
+                pageTable.put(frame);
             }
-            pageStore.put(p.getId(), p);
+            if(frame.page == null){
+                if(cachedPages > numPages){
+                    evictPage();
+                }
+                frame.age = age ++;
+                cachedPages++;
+            }
+            frame.page = p;
         }
     }
 
@@ -367,8 +576,10 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // necessary for lab2
-        for(Page p: pageStore.values()){
-            flushPage(p.getId());
+        for(int i = 0; i < pageTable.capacity(); i++){
+            Frame frame = pageTable.at(i);
+            if(frame != null && frame.page != null)
+                flushPage(frame.pid);
         }
     }
 
@@ -383,7 +594,12 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // discardPage(PageId pid)：从BufferPool的缓存中删除pid对应的page。
         // not necessary for lab1
-        pageStore.remove(pid);
+        Frame frame = pageTable.get(pageKey(pid));
+        if(frame != null && frame.page != null){
+            frame.page = null;
+            cachedPages--;
+            dropIfUnused(frame);
+        }
     }
 
     /**
@@ -393,7 +609,10 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // flushPage(PageId pid)：将pid对应的Page从BuffePool的缓存中写入disk。
         // not necessary for lab1
-        Page p = pageStore.get(pid);
+        Frame frame = pageTable.get(pageKey(pid));
+        if(frame == null || frame.page == null)
+            return;
+        Page p = frame.page;
         TransactionId tid = null;
         if((tid = p.isDirty()) != null){
             Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
@@ -408,10 +627,11 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2, for lab4
-        for(PageId pid : pageStore.keySet()){
-            Page page = pageStore.get(pid);
-            if(page.isDirty() == tid){
-                flushPage(pid);
+        for(int i = 0; i < pageTable.capacity(); i++){
+            Frame frame = pageTable.at(i);
+            Page page = frame == null ? null : frame.page;
+            if(page != null && page.isDirty() == tid){
+                flushPage(frame.pid);
             }
         }
     }
@@ -422,7 +642,7 @@ public class BufferPool {
      */
     private synchronized  void evictPage() throws DbException {
         // evictPage()：当缓存的page数量超过缓存最大numPages数量，调用evictPage()淘汰一个页。
-        // 先维护一个<PageId,Integer>类型的哈希表pageAge，根据Page载入cache的时间排序，淘汰缓存中最老的Page
+        // 每个Frame记录Page载入cache的时间age，淘汰缓存中最老的Page
         // necessary for lab2
         /*PageId pid = new ArrayList<>(pageStore.keySet()).get(0);
         try{
@@ -431,32 +651,25 @@ public class BufferPool {
             e.printStackTrace();
         }
         discardPage(pid);*/
-        assert numPages == pageStore.size() : "Bufferpool is not full, no need to evict.";
-        PageId pgid = null;
-        int oldestAge = -1;
+        Frame victim = null;
         // find the oldest page to evict (which is not dirty)
-        for(PageId pid : pageAge.keySet()){
-            Page page = pageStore.get(pid);
-            // skip dirty page
-            if(page.isDirty() != null){
-                continue;
-            }
-            if(pgid == null){
-                pgid = pid;
-                oldestAge = pageAge.get(pid);
+        for(int i = 0; i < pageTable.capacity(); i++){
+            Frame frame = pageTable.at(i);
+            Page page = frame == null ? null : frame.page;
+            // skip uncached and dirty pages
+            if(page == null || page.isDirty() != null){
                 continue;
             }
-            if(pageAge.get(pid) < oldestAge){
-                pgid = pid;
-                oldestAge = pageAge.get(pid);
+            if(victim == null || frame.age < victim.age){
+                victim = frame;
             }
         }
-        if(pgid == null)
+        if(victim == null)
             throw new DbException("all pages are not dirty");
-        Page page = pageStore.get(pgid);
 
         //evict
-        pageStore.remove(pgid);
-        pageAge.remove(pgid);
+        victim.page = null;
+        cachedPages--;
+        dropIfUnused(victim);
     }
 }
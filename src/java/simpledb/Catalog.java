@@ -3,7 +3,9 @@ package simpledb;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -50,10 +52,89 @@ public class Catalog {
             return tableName + "(" + dbFile.getId() + ":" + pk + ")";
         }
     }
+    /**
+     * Table ids handed out by assignTableId() are dense: 0, 1, 2, ... Tables
+     * whose id is below this bound are also kept in an array so the hot-path
+     * lookups (getDatabaseFile() on every buffer pool miss) avoid hashing.
+     */
+    private static final int MAX_DENSE_ID = 1 << 16;
+
+    /**
+     * Canonical path of every data file seen in this process -> its id.
+     * Shared by all catalogs, so that a DbFile built before Database.reset()
+     * never shares an id, and with it buffer pool pages, with one built
+     * after. Guarded by itself, as is usedIds.
+     */
+    private static final HashMap<String, Integer> fileIds = new HashMap<String, Integer>();
+    /** Ids in use by some data file, indexed by id. */
+    private static final BitSet usedIds = new BitSet();
+
     private final ConcurrentHashMap<Integer, Table> hashTable;
+    private volatile Table[] denseTables;
     public Catalog() {
         // Catalog构造函数：创建一个<Interger,Table>的哈希表，用于存储已经实例化的表。
         hashTable = new ConcurrentHashMap<Integer, Table>();
+        denseTables = new Table[16];
+    }
+
+    /**
+     * Returns the table id of the data file f, assigning the next free dense
+     * id the first time a file is seen. The id depends only on the file's
+     * canonical path, so a file opened again gets back the id it had.
+     * <p>
+     * Ids are remembered for the life of the process, across
+     * Database.reset(): files reopened afterwards (e.g. for recovery) get
+     * the same ids again, and new files never reuse an id. loadSchema()
+     * additionally persists them next to the catalog file so they survive
+     * restarts.
+     *
+     * @param f the file backing a DbFile
+     * @return a small non-negative id unique to f within the process
+     */
+    public static int assignTableId(File f) {
+        return assignTableId(f, -1);
+    }
+
+    /**
+     * Like assignTableId(File), but tries to give f the id preferred (e.g. an
+     * id read back from disk) if f has no id yet and preferred is free.
+     */
+    static int assignTableId(File f, int preferred) {
+        String path = canonicalPath(f);
+        synchronized (fileIds) {
+            Integer id = fileIds.get(path);
+            if (id != null)
+                return id;
+            int newId = (preferred >= 0 && !usedIds.get(preferred)) ? preferred : usedIds.nextClearBit(0);
+            usedIds.set(newId);
+            fileIds.put(path, newId);
+            return newId;
+        }
+    }
+
+    /** @return the id the next file seen will be given, unless it prefers another */
+    static int nextTableId() {
+        synchronized (fileIds) {
+            return usedIds.nextClearBit(0);
+        }
+    }
+
+    private static String canonicalPath(File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+
+    private Table lookup(int tableid) {
+        Table[] dense = denseTables;
+        if (tableid >= 0 && tableid < dense.length) {
+            Table t = dense[tableid];
+            if (t != null)
+                return t;
+        }
+        return hashTable.get(tableid);
     }
 
     /**
@@ -68,7 +149,17 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // addTable(DbFile file, String name, String pkeyField)：在哈希表中添加一个Table。
         Table t = new Table(file, name, pkeyField);
-        hashTable.put(file.getId(), t);
+        int id = file.getId();
+        synchronized (this) {
+            hashTable.put(id, t);
+            if (id >= 0 && id < MAX_DENSE_ID) {
+                Table[] dense = denseTables;
+                if (id >= dense.length)
+                    dense = Arrays.copyOf(dense, Math.min(MAX_DENSE_ID, Math.max(id + 1, dense.length * 2)));
+                dense[id] = t;
+                denseTables = dense;
+            }
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -111,7 +202,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // getTupleDesc(int tableid)：返回tableid表对应的TupleDesc表结构。
-        Table t = hashTable.getOrDefault(tableid, null);
+        Table t = lookup(tableid);
         if(t != null){
             return t.dbFile.getTupleDesc();
         } else {
@@ -127,7 +218,7 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // getDatabaseFile(int tableid)：返回tableid表对应的表数据DbFile。
-        Table t = hashTable.getOrDefault(tableid, null);
+        Table t = lookup(tableid);
         if(t != null){
             return t.dbFile;
         } else{
@@ -137,7 +228,7 @@ public class Catalog {
 
     public String getPrimaryKey(int tableid) {
         // getPrimaryKey(int tableid)：返回tableid表对应的主键名。
-        Table t = hashTable.getOrDefault(tableid, null);
+        Table t = lookup(tableid);
         if(t != null){
             return t.pk;
         } else{
@@ -152,7 +243,7 @@ public class Catalog {
 
     public String getTableName(int tableid) {
         // getTableName(int id)：返回tableid表对应的TableName。
-        Table t = hashTable.getOrDefault(tableid, null);
+        Table t = lookup(tableid);
         if(t != null){
             return t.tableName;
         } else{
@@ -163,17 +254,29 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // clear()：从Catalog中删除所有的tables。
-        hashTable.clear();
+        synchronized (this) {
+            hashTable.clear();
+            denseTables = new Table[16];
+        }
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * The id given to each table is saved in catalogFile + ".ids" (one
+     * "name id" pair per line) and reused the next time the schema is
+     * loaded, so page ids in the log stay valid across restarts.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
         //loadSchema(String catalogFile)：利用正则化从file中读取表的结构，并在数据库中创建所有合适的表。
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
+        File idFile = new File(catalogFile + ".ids");
+        Map<String, Integer> savedIds = readTableIds(idFile);
+        ArrayList<String> tableNames = new ArrayList<String>();
+        ArrayList<TupleDesc> schemas = new ArrayList<TupleDesc>();
+        ArrayList<String> primaryKeys = new ArrayList<String>();
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
@@ -208,10 +311,9 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                tableNames.add(name);
+                schemas.add(new TupleDesc(typeAr, namesAr));
+                primaryKeys.add(primaryKey);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -220,6 +322,54 @@ public class Catalog {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
+
+        // reserve every saved id first, so that a new table listed earlier
+        // cannot take the id of a table listed after it
+        for (String name : tableNames) {
+            Integer saved = savedIds.get(name);
+            if (saved != null)
+                assignTableId(new File(baseFolder + "/" + name + ".dat"), saved);
+        }
+        Map<String, Integer> ids = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < tableNames.size(); i++) {
+            String name = tableNames.get(i);
+            TupleDesc t = schemas.get(i);
+            File dataFile = new File(baseFolder+"/"+name + ".dat");
+            int id = assignTableId(dataFile, -1);
+            HeapFile tabHf = new HeapFile(dataFile, t, id);
+            addTable(tabHf,name,primaryKeys.get(i));
+            ids.put(name, id);
+            System.out.println("Added table : " + name + " with schema " + t);
+        }
+        if (!ids.equals(savedIds))
+            writeTableIds(idFile, ids);
+    }
+
+    private static Map<String, Integer> readTableIds(File idFile) {
+        Map<String, Integer> ids = new LinkedHashMap<String, Integer>();
+        if (!idFile.exists())
+            return ids;
+        try (BufferedReader br = new BufferedReader(new FileReader(idFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] els = line.trim().split("\\s+");
+                if (els.length == 2)
+                    ids.put(els[0], Integer.parseInt(els[1]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Ignoring unreadable table id file " + idFile + ": " + e);
+            ids.clear();
+        }
+        return ids;
     }
-}
 
+    private static void writeTableIds(File idFile, Map<String, Integer> ids) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(idFile))) {
+            for (Map.Entry<String, Integer> e : ids.entrySet())
+                pw.println(e.getKey() + " " + e.getValue());
+        } catch (IOException e) {
+            // the ids are still valid for this run; they just won't be reused
+            System.out.println("Unable to save table ids to " + idFile + ": " + e);
+        }
+    }
+}
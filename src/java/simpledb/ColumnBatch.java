@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A ColumnBatch holds up to {@link #capacity()} rows of a relation column by
+ * column: INT_TYPE columns as int[] and STRING_TYPE columns as String[]. It
+ * is the unit of data exchanged by {@link BatchOpIterator}s, which lets
+ * operators run tight loops over primitive arrays instead of calling
+ * hasNext()/next() and unboxing a Field per value.
+ * <p>
+ * A batch is reused: the producer overwrites it on every call to nextBatch(),
+ * so a consumer must copy whatever it wants to keep.
+ */
+public class ColumnBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows a batch holds unless specified otherwise. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private int size;
+
+    /**
+     * Creates an empty batch with room for capacity rows of the given schema.
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        this.size = 0;
+    }
+
+    /** Creates an empty batch with room for DEFAULT_SIZE rows. */
+    public ColumnBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /** Creates a batch that shares the given column arrays. */
+    private ColumnBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings, int size) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.size = size;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows currently in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return the maximum number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if no more rows can be appended */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Sets the number of valid rows, after the caller has written the
+     * column arrays directly.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity)
+            throw new IllegalArgumentException("batch size " + size + " out of range");
+        this.size = size;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the backing array of an INT_TYPE column; only the first size()
+     * entries are valid.
+     */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /**
+     * Returns the backing array of a STRING_TYPE column; only the first
+     * size() entries are valid.
+     */
+    public String[] stringColumn(int col) {
+        return strings[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return strings[col][row];
+    }
+
+    /** @return the value at (col, row) boxed as a Field */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return new StringField(strings[col][row], Type.STRING_LEN);
+    }
+
+    /** @return row as a Tuple with this batch's schema */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+
+    /**
+     * Appends the fields of t as a new row.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][size] = t.getInt(i);
+            else
+                strings[i][size] = t.getString(i);
+        }
+        size++;
+    }
+
+    /**
+     * Copies row srcRow of src (which must have the same column types as
+     * this batch starting at column dstCol) into columns
+     * [dstCol, dstCol + src.numFields) of row dstRow of this batch.
+     */
+    void copyRow(ColumnBatch src, int srcRow, int dstRow, int dstCol) {
+        for (int i = 0; i < src.ints.length; i++) {
+            if (src.ints[i] != null)
+                ints[dstCol + i][dstRow] = src.ints[i][srcRow];
+            else
+                strings[dstCol + i][dstRow] = src.strings[i][srcRow];
+        }
+    }
+
+    /**
+     * Appends row leftRow of left followed by row rightRow of right as one row
+     * of this batch, whose schema must be left's followed by right's.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addJoinedRow(ColumnBatch left, int leftRow, ColumnBatch right, int rightRow) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        copyRow(left, leftRow, size, 0);
+        copyRow(right, rightRow, size, left.ints.length);
+        size++;
+    }
+
+    /** @return a copy of this batch that does not share storage with it */
+    public ColumnBatch copy() {
+        ColumnBatch c = new ColumnBatch(td, capacity);
+        for (int i = 0; i < size; i++)
+            c.copyRow(this, i, i, 0);
+        c.size = size;
+        return c;
+    }
+
+    /**
+     * Keeps only the rows whose indexes are listed, in ascending order, in
+     * sel[0..n), moving them to the front of the batch.
+     */
+    public void select(int[] sel, int n) {
+        for (int c = 0; c < ints.length; c++) {
+            if (sharesEarlierColumn(c))
+                continue; // a projection listed this column twice; already done
+            if (ints[c] != null) {
+                int[] col = ints[c];
+                for (int i = 0; i < n; i++)
+                    col[i] = col[sel[i]];
+            } else {
+                String[] col = strings[c];
+                for (int i = 0; i < n; i++)
+                    col[i] = col[sel[i]];
+            }
+        }
+        size = n;
+    }
+
+    private boolean sharesEarlierColumn(int c) {
+        for (int i = 0; i < c; i++) {
+            if ((ints[c] != null && ints[i] == ints[c]) || (strings[c] != null && strings[i] == strings[c]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a batch made of the listed columns of this one. No data is
+     * copied: the result shares this batch's arrays and row count at the
+     * time of the call.
+     */
+    public ColumnBatch project(int[] cols, TupleDesc projected) {
+        int[][] pi = new int[cols.length][];
+        String[][] ps = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pi[i] = ints[cols[i]];
+            ps[i] = strings[cols[i]];
+        }
+        return new ColumnBatch(projected, capacity, pi, ps, size);
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnEncoder picks a lightweight encoding for a column and builds the
+ * corresponding {@link EncodedColumn}:
+ * <ul>
+ * <li>run-length encoding when the column is made of long runs (e.g. it is
+ * sorted or clustered on this field);</li>
+ * <li>otherwise dictionary encoding for StringFields and frame-of-reference
+ * bit packing for IntFields.</li>
+ * </ul>
+ */
+public class ColumnEncoder {
+
+    /**
+     * Run-length encoding is chosen when the average run is at least this
+     * many rows long.
+     */
+    public static final int MIN_AVG_RUN_LENGTH = 4;
+
+    /**
+     * Encodes the given values, choosing the encoding from the data.
+     *
+     * @param type the type of the column
+     * @param values the fields of the column, in row order
+     * @return the encoded column
+     */
+    public static EncodedColumn encode(Type type, List<Field> values) {
+        int runs = 0;
+        for (int i = 0; i < values.size(); i++) {
+            if (i == 0 || !values.get(i).equals(values.get(i - 1)))
+                runs++;
+        }
+        if (runs > 0 && values.size() / runs >= MIN_AVG_RUN_LENGTH)
+            return new RunLengthColumn(type, values);
+        if (type == Type.STRING_TYPE)
+            return new DictionaryColumn(values);
+        return new FrameOfReferenceColumn(values);
+    }
+
+    /**
+     * Drains the child iterator and encodes one of its columns.
+     *
+     * @param child the iterator to read; it is opened and closed here
+     * @param field the index of the column to encode
+     * @return the encoded column
+     */
+    public static EncodedColumn encode(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Field> values = new ArrayList<Field>();
+        child.open();
+        try {
+            while (child.hasNext())
+                values.add(child.next().getField(field));
+        } finally {
+            child.close();
+        }
+        return encode(child.getTupleDesc().getFieldType(field), values);
+    }
+}
@@ -28,6 +28,20 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Builds the PageId of a page of this file from its primitive parts; the
+     * inverse of BufferPool.pageKey(PageId). Used by the buffer pool when a
+     * page requested by number has to be read from disk.
+     *
+     * @param pgNo the page number within this file
+     * @param pgcateg the BTreePageId category, or 0 for heap pages
+     * @throws UnsupportedOperationException if this file does not support
+     *         lookups by page number
+     */
+    public default PageId getPageId(int pgNo, int pgcateg) {
+        throw new UnsupportedOperationException("page lookup by number not supported");
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,11 +87,10 @@ public interface DbFile {
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
      * {@link Catalog#getTupleDesc}.
      * <p>
-     * Implementation note:  you will need to generate this tableid somewhere,
-     * ensure that each HeapFile has a "unique id," and that you always
-     * return the same value for a particular HeapFile. A simple implementation
-     * is to use the hash code of the absolute path of the file underlying
-     * the HeapFile, i.e. <code>f.getAbsoluteFile().hashCode()</code>.
+     * Implementation note:  ensure that each DbFile has a "unique id," and
+     * that you always return the same value for a particular DbFile. File
+     * backed implementations should use {@link Catalog#assignTableId}, which
+     * hands out small dense ids, the same for a file each time it is opened.
      *
      * @return an ID uniquely identifying this HeapFile.
      */
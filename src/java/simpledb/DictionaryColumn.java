@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Dictionary encoding for StringField columns. Each distinct string is stored
+ * once in a sorted dictionary and every row keeps only the int code of its
+ * string. Because the dictionary is sorted, code order equals string order,
+ * so equality and range predicates are answered by comparing codes.
+ */
+public class DictionaryColumn implements EncodedColumn {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] dictionary;
+    private final int[] codes;
+
+    /**
+     * Builds a dictionary-encoded column from the given values.
+     *
+     * @param values the StringFields of the column, in row order
+     */
+    public DictionaryColumn(List<Field> values) {
+        TreeMap<String, Integer> distinct = new TreeMap<String, Integer>();
+        for (Field f : values)
+            distinct.put(((StringField) f).getValue(), 0);
+        dictionary = distinct.keySet().toArray(new String[0]);
+        int code = 0;
+        for (Map.Entry<String, Integer> e : distinct.entrySet())
+            e.setValue(code++);
+
+        codes = new int[values.size()];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = distinct.get(((StringField) values.get(i)).getValue());
+    }
+
+    /**
+     * @return the number of distinct values in the dictionary
+     */
+    public int cardinality() {
+        return dictionary.length;
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    public Type getType() {
+        return Type.STRING_TYPE;
+    }
+
+    public Field get(int row) {
+        return new StringField(dictionary[codes[row]], Type.STRING_LEN);
+    }
+
+    public BitSet filter(Predicate.Op op, Field operand) {
+        String s = ((StringField) operand).getValue();
+        if (op == Predicate.Op.LIKE) {
+            // evaluate LIKE once per dictionary entry, then per row by code
+            boolean[] match = new boolean[dictionary.length];
+            for (int i = 0; i < dictionary.length; i++)
+                match[i] = dictionary[i].indexOf(s) >= 0;
+            BitSet res = new BitSet(codes.length);
+            for (int i = 0; i < codes.length; i++)
+                if (match[codes[i]])
+                    res.set(i);
+            return res;
+        }
+
+        int pos = Arrays.binarySearch(dictionary, s);
+        boolean found = pos >= 0;
+        // first code whose string is >= s
+        int ge = found ? pos : -pos - 1;
+        // first code whose string is > s
+        int gt = found ? pos + 1 : ge;
+
+        switch (op) {
+        case EQUALS:
+            return found ? codesIn(pos, pos + 1) : new BitSet();
+        case NOT_EQUALS:
+            if (!found)
+                return codesIn(0, dictionary.length);
+            BitSet res = codesIn(pos, pos + 1);
+            res.flip(0, codes.length);
+            return res;
+        case GREATER_THAN:
+            return codesIn(gt, dictionary.length);
+        case GREATER_THAN_OR_EQ:
+            return codesIn(ge, dictionary.length);
+        case LESS_THAN:
+            return codesIn(0, ge);
+        case LESS_THAN_OR_EQ:
+            return codesIn(0, gt);
+        default:
+            throw new UnsupportedOperationException("unsupported op " + op);
+        }
+    }
+
+    /**
+     * @return the rows whose code lies in [lo, hi)
+     */
+    private BitSet codesIn(int lo, int hi) {
+        BitSet res = new BitSet(codes.length);
+        if (lo >= hi)
+            return res;
+        for (int i = 0; i < codes.length; i++) {
+            int c = codes[i];
+            if (c >= lo && c < hi)
+                res.set(i);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DirectIO reads pages from disk while bypassing the operating system's page
+ * cache (O_DIRECT), so that a page held by the BufferPool is not cached a
+ * second time by the kernel.
+ * <p>
+ * Direct reads must start at, and cover a whole number of, file system
+ * blocks, and must target a block-aligned memory buffer. read() therefore
+ * reads the smallest aligned window containing the requested range into a
+ * per-thread aligned direct buffer and copies the requested bytes out.
+ * <p>
+ * Direct I/O is off by default. Turn it on with the system property
+ * simpledb.DirectIO (e.g. -Dsimpledb.DirectIO=true) or with setEnabled().
+ * If the JVM or the file system does not support O_DIRECT (e.g. tmpfs, a
+ * non-OpenJDK runtime, or a JDK older than 10) DirectIO falls back to
+ * ordinary buffered reads. The O_DIRECT open option and
+ * ByteBuffer.alignedSlice() are looked up reflectively, so the class loads
+ * on Java 8.
+ * <p>
+ * Each file is opened once and its channel is shared by all later reads, up
+ * to MAX_OPEN files. Channels are closed when direct I/O is turned off and
+ * by {@link #close(File)}, which DbFiles call for their file as it may have
+ * been replaced.
+ */
+public class DirectIO {
+
+    /**
+     * Alignment used for file offsets, lengths and memory. 4096 is a multiple
+     * of the logical block size of every common file system.
+     */
+    private static final int ALIGNMENT = 4096;
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.DirectIO", "false"));
+
+    /** Cleared the first time the platform refuses an O_DIRECT open. */
+    private static volatile boolean supported = true;
+
+    /** The most files kept open; the least recently read one is closed. */
+    private static final int MAX_OPEN = 64;
+
+    /** ExtendedOpenOption.DIRECT (JDK 10+), or null. */
+    private static final OpenOption DIRECT = directOption();
+
+    /** ByteBuffer.alignedSlice(int) (JDK 9+), or null. */
+    private static final Method ALIGNED_SLICE = alignedSlice();
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    /** The open direct channels, in access order. Guarded by itself. */
+    private static final Map<File, FileChannel> channels =
+            new LinkedHashMap<File, FileChannel>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, FileChannel> eldest) {
+                    if (size() <= MAX_OPEN)
+                        return false;
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+
+    private DirectIO() {
+    }
+
+    /** @return true if reads will attempt to bypass the OS page cache. */
+    public static boolean isEnabled() {
+        return enabled && supported;
+    }
+
+    /** Turns direct reads on or off for subsequent calls to read(). */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+        if (on) {
+            supported = true;
+        } else {
+            synchronized (channels) {
+                for (Iterator<FileChannel> it = channels.values().iterator(); it.hasNext();) {
+                    closeQuietly(it.next());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the channel kept open for f, if any, so that the next read opens
+     * f again.
+     */
+    public static void close(File f) {
+        FileChannel ch;
+        synchronized (channels) {
+            ch = channels.remove(f);
+        }
+        closeQuietly(ch);
+    }
+
+    /**
+     * Reads up to dst.length bytes of f starting at offset into dst.
+     *
+     * @param f
+     *            the file to read from
+     * @param offset
+     *            the byte offset in f of the first byte to read
+     * @param dst
+     *            the destination array
+     * @return the number of bytes read, or -1 if offset is past the end of
+     *         the file
+     */
+    public static int read(File f, long offset, byte[] dst) throws IOException {
+        if (isEnabled()) {
+            FileChannel ch = channel(f);
+            if (ch != null) {
+                try {
+                    return readAligned(ch, offset, dst);
+                } catch (ClosedChannelException e) {
+                    // closed by another thread; read this page buffered
+                } catch (IOException e) {
+                    // some file systems accept the open but reject the read
+                    Debug.log(1, "DirectIO: direct read failed (%s), using buffered reads", e);
+                    supported = false;
+                    close(f);
+                }
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek(offset);
+            return raf.read(dst, 0, dst.length);
+        }
+    }
+
+    /** @return the open direct channel of f, or null if none can be opened */
+    private static FileChannel channel(File f) throws IOException {
+        synchronized (channels) {
+            FileChannel ch = channels.get(f);
+            if (ch == null || !ch.isOpen()) {
+                ch = openDirect(f.toPath());
+                if (ch == null)
+                    return null;
+                channels.put(f, ch);
+            }
+            return ch;
+        }
+    }
+
+    private static FileChannel openDirect(Path p) throws IOException {
+        if (DIRECT == null || ALIGNED_SLICE == null) {
+            Debug.log(1, "DirectIO: O_DIRECT needs JDK 10 or later, using buffered reads");
+            supported = false;
+            return null;
+        }
+        try {
+            return FileChannel.open(p, StandardOpenOption.READ, DIRECT);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(p.toString());
+        } catch (IOException | UnsupportedOperationException e) {
+            // O_DIRECT is a hint; remember the refusal and stop trying
+            Debug.log(1, "DirectIO: direct reads unavailable (%s), using buffered reads", e);
+            supported = false;
+            return null;
+        }
+    }
+
+    private static int readAligned(FileChannel ch, long offset, byte[] dst) throws IOException {
+        int align = ALIGNMENT;
+        long start = offset - offset % align;
+        long end = offset + dst.length;
+        int len = (int) (((end + align - 1) / align) * align - start);
+
+        ByteBuffer buf = buffer(len, align);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, start + total);
+            if (n <= 0)
+                break;
+            total += n;
+        }
+        int skip = (int) (offset - start);
+        if (total <= skip)
+            return -1;
+        int avail = Math.min(dst.length, total - skip);
+        buf.position(skip);
+        buf.get(dst, 0, avail);
+        return avail;
+    }
+
+    private static ByteBuffer buffer(int len, int align) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < len) {
+            try {
+                buf = (ByteBuffer) ALIGNED_SLICE.invoke(ByteBuffer.allocateDirect(len + align), align);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        if (ch == null)
+            return;
+        try {
+            ch.close();
+        } catch (IOException e) {
+            Debug.log(1, "DirectIO: close failed (%s)", e);
+        }
+    }
+
+    private static OpenOption directOption() {
+        try {
+            Class<?> c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object o : c.getEnumConstants()) {
+                if (((Enum<?>) o).name().equals("DIRECT"))
+                    return (OpenOption) o;
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            // not an OpenJDK runtime
+        }
+        return null;
+    }
+
+    private static Method alignedSlice() {
+        try {
+            return ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * EncodedColumn is a read-only, lightweight-compressed copy of one column of
+ * a table. Implementations keep the values in an encoded form (dictionary
+ * codes, runs, bit-packed offsets) and evaluate predicates directly on that
+ * form, so a filter over an encoded column never has to box a {@link Field}
+ * per row.
+ *
+ * @see ColumnEncoder
+ * @see Predicate#filter(EncodedColumn)
+ */
+public interface EncodedColumn extends Serializable {
+
+    /**
+     * @return the number of rows stored in this column
+     */
+    public int size();
+
+    /**
+     * @return the type of the values stored in this column
+     */
+    public Type getType();
+
+    /**
+     * Decodes a single value. This allocates a Field and is meant for
+     * materializing the (few) rows that survive a filter, not for scanning.
+     *
+     * @param row a row number in [0, size())
+     * @return the value stored at that row
+     */
+    public Field get(int row);
+
+    /**
+     * Evaluates <tt>value(row) op operand</tt> for every row of the column on
+     * the encoded representation.
+     *
+     * @param op the comparison to apply
+     * @param operand the constant to compare against; must be of the same
+     *            type as this column
+     * @return a BitSet with bit i set iff row i satisfies the comparison
+     */
+    public BitSet filter(Predicate.Op op, Field operand);
+}
@@ -0,0 +1,323 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ExternalSorter sorts tuples that may not fit in memory. Tuples are added
+ * into a buffer of at most memoryTuples; each time it fills up it is sorted
+ * and written to a {@link TupleSpillFile} as a run. cursor() returns the
+ * tuples in order, merging the runs if there are any.
+ * <p>
+ * Runs are merged through a loser tree, which finds the next tuple with one
+ * comparison per level and, unlike a heap, replays only the path of the run
+ * that just advanced. At most {@link #MAX_FAN_IN} runs are read at once;
+ * more are first merged, in order, into longer runs. Ties are returned in
+ * the order the tuples were added, so the sort is stable.
+ * <p>
+ * When the order is a {@link TupleComparator}, each tuple's normalized key
+ * prefix is computed once, as it is added or read back from a run, and the
+ * sort and the merge compare those longs, going back to the tuples only for
+ * equal prefixes that do not hold the whole key.
+ * <p>
+ * When enabled with -Dsimpledb.ParallelSort=true or setParallel(), the
+ * buffer is sorted with Arrays.parallelSort, a stable merge sort over the
+ * common ForkJoinPool, so sorting in memory and generating each run use all
+ * cores; small buffers, and a pool of one thread, still sort sequentially.
+ * It is off by default, as {@code SortBenchmark} does not show it faster
+ * than the sequential sort.
+ */
+public class ExternalSorter {
+
+    /** Maximum number of runs merged in one pass. */
+    public static final int MAX_FAN_IN = 64;
+
+    private static volatile boolean parallel =
+            Boolean.parseBoolean(System.getProperty("simpledb.ParallelSort", "false"));
+
+    /** @return true if buffers are sorted on several threads */
+    public static boolean isParallel() {
+        return parallel;
+    }
+
+    /** Turns sorting buffers on several threads on or off. */
+    public static void setParallel(boolean on) {
+        parallel = on;
+    }
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    // cmp if it is a TupleComparator, else null and the prefixes are all 0
+    private final TupleComparator normalized;
+    private final boolean prefixIsKey;
+    private final Comparator<Keyed> keyedOrder;
+    private final int memoryTuples;
+    private ArrayList<Keyed> buffer = new ArrayList<Keyed>();
+    private ArrayList<TupleSpillFile> runs = new ArrayList<TupleSpillFile>();
+    private int spilledRuns;
+    private int mergePasses;
+    private boolean sorted;
+
+    /**
+     * @param td
+     *            the schema of the tuples to sort
+     * @param cmp
+     *            the sort order
+     * @param memoryTuples
+     *            the maximum number of tuples held in memory
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> cmp, int memoryTuples) {
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryTuples);
+        this.td = td;
+        this.cmp = cmp;
+        this.normalized = cmp instanceof TupleComparator ? (TupleComparator) cmp : null;
+        this.prefixIsKey = normalized != null && normalized.prefixIsKey(td);
+        this.keyedOrder = new Comparator<Keyed>() {
+            public int compare(Keyed a, Keyed b) {
+                return ExternalSorter.this.compare(a.key, a.t, b.key, b.t);
+            }
+        };
+        this.memoryTuples = memoryTuples;
+    }
+
+    /** A tuple and the prefix of its sort key. */
+    private static final class Keyed {
+        final long key;
+        final Tuple t;
+
+        Keyed(long key, Tuple t) {
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    private long prefix(Tuple t) {
+        return normalized == null ? 0 : normalized.prefix(t);
+    }
+
+    private int compare(long ka, Tuple a, long kb, Tuple b) {
+        if (normalized == null)
+            return cmp.compare(a, b);
+        return normalized.compare(ka, a, kb, b, prefixIsKey);
+    }
+
+    /** Adds t to the tuples to sort; not allowed once cursor() was called. */
+    public void add(Tuple t) throws DbException {
+        if (sorted)
+            throw new IllegalStateException("tuples cannot be added after sorting");
+        // spill only once more than memoryTuples arrive, so an input that
+        // fits exactly is still sorted in memory
+        if (buffer.size() >= memoryTuples)
+            spillRun();
+        buffer.add(new Keyed(prefix(t), t));
+    }
+
+    /** @return the number of sorted runs written to disk */
+    public int numRuns() {
+        return spilledRuns;
+    }
+
+    /**
+     * @return the number of passes that merged runs into longer runs before
+     *         the final merge
+     */
+    public int numMergePasses() {
+        return mergePasses;
+    }
+
+    private void sortBuffer() {
+        // ArrayList sorts in place, while the parallel sort needs a copy
+        if (!parallel || ForkJoinPool.getCommonPoolParallelism() == 1) {
+            Collections.sort(buffer, keyedOrder);
+            return;
+        }
+        Keyed[] a = buffer.toArray(new Keyed[buffer.size()]);
+        Arrays.parallelSort(a, keyedOrder);
+        for (int i = 0; i < a.length; i++)
+            buffer.set(i, a[i]);
+    }
+
+    private void spillRun() throws DbException {
+        sortBuffer();
+        try {
+            TupleSpillFile run = new TupleSpillFile(td);
+            for (Keyed k : buffer)
+                run.add(k.t);
+            runs.add(run);
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+        spilledRuns++;
+        buffer = new ArrayList<Keyed>();
+    }
+
+    /**
+     * Merges groups of MAX_FAN_IN consecutive runs into one run each until
+     * no more than MAX_FAN_IN are left.
+     */
+    private void mergeRuns() throws DbException {
+        try {
+            while (runs.size() > MAX_FAN_IN) {
+                ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+                for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                    List<TupleSpillFile> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    TupleSpillFile out = new TupleSpillFile(td);
+                    Cursor c = new Cursor(group);
+                    Tuple t;
+                    while ((t = c.next()) != null)
+                        out.add(t);
+                    c.close();
+                    for (TupleSpillFile run : group)
+                        run.delete();
+                    merged.add(out);
+                }
+                runs = merged;
+                mergePasses++;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not merge sort runs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the added tuples in order. May be called more than once to
+     * read them again.
+     */
+    public Cursor cursor() throws DbException {
+        if (!sorted) {
+            sorted = true;
+            if (runs.isEmpty())
+                sortBuffer();
+            else if (!buffer.isEmpty())
+                spillRun();
+            mergeRuns();
+        }
+        try {
+            return new Cursor(runs.isEmpty() ? null : runs);
+        } catch (IOException e) {
+            throw new DbException("could not read sort run: " + e.getMessage());
+        }
+    }
+
+    /** Deletes the runs written to disk. */
+    public void delete() {
+        for (TupleSpillFile run : runs)
+            run.delete();
+        runs.clear();
+        buffer = new ArrayList<Keyed>();
+    }
+
+    /** Reads the sorted tuples of an ExternalSorter. */
+    public class Cursor {
+        private int pos;
+
+        // run r's next tuple is heads[r], null once it is exhausted, and its
+        // prefix headKeys[r]; tree[0]
+        // is the run holding the smallest head, and tree[n] for 0 < n < k the
+        // loser of the match played at node n, whose children are 2n and
+        // 2n + 1, run r being leaf k + r
+        private final TupleSpillFile.Reader[] readers;
+        private final Tuple[] heads;
+        private final long[] headKeys;
+        private final int[] tree;
+
+        private Cursor(List<TupleSpillFile> runs) throws IOException {
+            if (runs == null) {
+                readers = null;
+                heads = null;
+                headKeys = null;
+                tree = null;
+                return;
+            }
+            int k = runs.size();
+            readers = new TupleSpillFile.Reader[k];
+            heads = new Tuple[k];
+            headKeys = new long[k];
+            for (int r = 0; r < k; r++) {
+                readers[r] = runs.get(r).reader();
+                advance(r);
+            }
+            tree = new int[k];
+            int[] winners = new int[2 * k];
+            for (int r = 0; r < k; r++)
+                winners[k + r] = r;
+            for (int n = k - 1; n >= 1; n--) {
+                int a = winners[2 * n], b = winners[2 * n + 1];
+                if (before(a, b)) {
+                    winners[n] = a;
+                    tree[n] = b;
+                } else {
+                    winners[n] = b;
+                    tree[n] = a;
+                }
+            }
+            tree[0] = winners[1];
+        }
+
+        /** @return true if run a's head comes before run b's */
+        private boolean before(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = compare(headKeys[a], heads[a], headKeys[b], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /** Reads run r's next tuple into heads[r]. */
+        private void advance(int r) throws IOException {
+            heads[r] = readers[r].next();
+            if (heads[r] != null)
+                headKeys[r] = prefix(heads[r]);
+        }
+
+        /** @return the next tuple in order, or null after the last one */
+        public Tuple next() throws DbException {
+            if (readers == null)
+                return pos < buffer.size() ? buffer.get(pos++).t : null;
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            try {
+                advance(w);
+            } catch (IOException e) {
+                throw new DbException("could not read sort run: " + e.getMessage());
+            }
+            // replay the matches on the path from w's leaf to the root
+            for (int n = (w + readers.length) >> 1; n >= 1; n >>= 1) {
+                if (before(tree[n], w)) {
+                    int loser = w;
+                    w = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = w;
+            return t;
+        }
+
+        /** Releases the files this cursor reads. */
+        public void close() {
+            if (readers == null)
+                return;
+            for (int r = 0; r < readers.length; r++) {
+                try {
+                    readers[r].close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                heads[r] = null;
+            }
+        }
+    }
+}
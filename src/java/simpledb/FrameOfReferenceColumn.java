@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Frame-of-reference encoding with bit packing for IntField columns. Every
+ * value is stored as its offset from the column minimum, packed into just
+ * enough bits to hold max - min. Predicates are rewritten into a range of
+ * offsets once, so the per-row work is an unpack and two int compares.
+ */
+public class FrameOfReferenceColumn implements EncodedColumn {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private final int base;
+    private final int bitWidth;
+    private final long mask;
+    private final long[] packed;
+
+    /**
+     * Builds a frame-of-reference encoded column from the given values.
+     *
+     * @param values the IntFields of the column, in row order
+     */
+    public FrameOfReferenceColumn(List<Field> values) {
+        size = values.size();
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (Field f : values) {
+            int v = ((IntField) f).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        base = size == 0 ? 0 : min;
+        long range = size == 0 ? 0 : (long) max - (long) min;
+        bitWidth = 64 - Long.numberOfLeadingZeros(range);
+        mask = bitWidth == 64 ? -1L : (1L << bitWidth) - 1;
+        packed = new long[(int) (((long) size * bitWidth + 63) / 64)];
+        for (int i = 0; i < size; i++)
+            pack(i, (long) ((IntField) values.get(i)).getValue() - base);
+    }
+
+    /**
+     * @return the number of bits each value occupies
+     */
+    public int getBitWidth() {
+        return bitWidth;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Type getType() {
+        return Type.INT_TYPE;
+    }
+
+    public Field get(int row) {
+        if (row < 0 || row >= size)
+            throw new NoSuchElementException("row " + row + " out of range");
+        return new IntField((int) (base + unpack(row)));
+    }
+
+    private void pack(int row, long delta) {
+        if (bitWidth == 0)
+            return;
+        long bit = (long) row * bitWidth;
+        int word = (int) (bit >>> 6);
+        int off = (int) (bit & 63);
+        packed[word] |= delta << off;
+        if (off + bitWidth > 64)
+            packed[word + 1] |= delta >>> (64 - off);
+    }
+
+    private long unpack(int row) {
+        if (bitWidth == 0)
+            return 0;
+        long bit = (long) row * bitWidth;
+        int word = (int) (bit >>> 6);
+        int off = (int) (bit & 63);
+        long v = packed[word] >>> off;
+        if (off + bitWidth > 64)
+            v |= packed[word + 1] << (64 - off);
+        return v & mask;
+    }
+
+    public BitSet filter(Predicate.Op op, Field operand) {
+        long v = (long) ((IntField) operand).getValue() - base;
+        // translate the predicate into an inclusive range of offsets
+        long lo, hi;
+        boolean negate = false;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            lo = v;
+            hi = v;
+            break;
+        case NOT_EQUALS:
+            lo = v;
+            hi = v;
+            negate = true;
+            break;
+        case GREATER_THAN:
+            lo = v + 1;
+            hi = Long.MAX_VALUE;
+            break;
+        case GREATER_THAN_OR_EQ:
+            lo = v;
+            hi = Long.MAX_VALUE;
+            break;
+        case LESS_THAN:
+            lo = Long.MIN_VALUE;
+            hi = v - 1;
+            break;
+        case LESS_THAN_OR_EQ:
+            lo = Long.MIN_VALUE;
+            hi = v;
+            break;
+        default:
+            throw new UnsupportedOperationException("unsupported op " + op);
+        }
+
+        BitSet res = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            long d = unpack(i);
+            if ((d >= lo && d <= hi) != negate)
+                res.set(i);
+        }
+        return res;
+    }
+}
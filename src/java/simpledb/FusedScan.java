@@ -0,0 +1,361 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * FusedScan runs a pipeline of SeqScan, any number of Filters and optionally
+ * an Aggregate over one heap file as a single loop. It walks the buffer
+ * pool's pages itself and tests each slot against every predicate in place
+ * through {@link HeapPage#select}, so no operator in between calls
+ * hasNext()/next(), no page iterator is built and only the matching tuples
+ * are built from the page's bytes. With an aggregate, matching rows are
+ * folded into long accumulators as they are found and only the groups are
+ * returned.
+ * <p>
+ * {@link LogicalPlan#physicalPlan} builds FusedScans through {@link #fuse}
+ * and {@link #aggregate}, which return null for plans they cannot handle so
+ * that the planner keeps the iterator operators. The planner does not fuse
+ * when disabled with -Dsimpledb.FusePipelines=false or setEnabled().
+ */
+public class FusedScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.FusePipelines", "true"));
+
+    /** @return true if the planner should fuse pipelines */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns pipeline fusion by the planner on or off. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate[] preds;
+    private final TupleDesc scanTd;
+
+    // the aggregate, when afield >= 0
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // scan position
+    private transient HeapFile file;
+    private int pageNo;
+    private transient HeapPage page;
+    // the slots of page that matched, their number and the next one
+    private transient int[] slots;
+    private int numSelected;
+    private int slot;
+    private transient PageFilter filter;
+
+    // aggregate state
+    private transient IntHashIndex intGroups;
+    private transient HashMap<String, Integer> stringGroups;
+    private transient ArrayList<String> stringKeys;
+    private long[] acc;
+    private long[] counts;
+    private int numGroups;
+    private int nextGroup;
+
+    /**
+     * Creates a scan of a heap file that returns only the tuples satisfying
+     * every predicate.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the heap file to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param preds
+     *            the predicates, applied in order
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias, Predicate[] preds) {
+        this(tid, tableid, tableAlias, preds, -1, Aggregator.NO_GROUPING, null);
+    }
+
+    /**
+     * Creates a scan of a heap file that aggregates the tuples satisfying
+     * every predicate; its output is that of {@link Aggregate}.
+     *
+     * @param afield
+     *            The INT_TYPE column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            MIN, MAX, SUM, AVG or COUNT
+     * @throws UnsupportedOperationException if aop or the type of afield is
+     *             not supported
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias, Predicate[] preds,
+            int afield, int gfield, Aggregator.Op aop) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.preds = preds;
+        this.scanTd = SeqScan.prefixedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (afield < 0) {
+            td = scanTd;
+        } else {
+            if (!canAggregate(scanTd, afield, aop))
+                throw new UnsupportedOperationException("cannot fuse " + aop + " over field " + afield);
+            if (gfield == Aggregator.NO_GROUPING)
+                td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{scanTd.getFieldName(afield)});
+            else
+                td = new TupleDesc(new Type[]{scanTd.getFieldType(gfield), Type.INT_TYPE},
+                        new String[]{scanTd.getFieldName(gfield), scanTd.getFieldName(afield)});
+        }
+    }
+
+    private static boolean canAggregate(TupleDesc td, int afield, Aggregator.Op aop) {
+        if (td.getFieldType(afield) != Type.INT_TYPE)
+            return false;
+        switch (aop) {
+        case MIN: case MAX: case SUM: case AVG: case COUNT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Replaces a plan made of Filters over a SeqScan of a heap file with an
+     * equivalent FusedScan.
+     *
+     * @param tid
+     *            The transaction the plan runs as a part of
+     * @param tableid
+     *            the table the SeqScan reads
+     * @param tableAlias
+     *            the alias of that table
+     * @param plan
+     *            the Filter/SeqScan chain
+     * @return the FusedScan, or null if fusion is disabled, plan has another
+     *         shape or the table is not a heap file
+     */
+    public static FusedScan fuse(TransactionId tid, int tableid, String tableAlias, OpIterator plan) {
+        if (!enabled || !(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            return null;
+        SeqScan scan = SeqScan.pushDown(plan);
+        if (scan == null)
+            return null;
+        return new FusedScan(tid, tableid, tableAlias, scan.getPredicates());
+    }
+
+    /**
+     * Returns a FusedScan computing the given aggregate over plan's output,
+     * or null if plan is not a FusedScan without an aggregate or the
+     * aggregate is not supported.
+     */
+    public static FusedScan aggregate(OpIterator plan, int afield, int gfield, Aggregator.Op aop) {
+        if (!(plan instanceof FusedScan))
+            return null;
+        FusedScan s = (FusedScan) plan;
+        if (s.afield >= 0 || !canAggregate(s.scanTd, afield, aop))
+            return null;
+        return new FusedScan(s.tid, s.tableid, s.tableAlias, s.preds, afield, gfield, aop);
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public Predicate[] getPredicates() {
+        return preds;
+    }
+
+    /** @return the aggregate field, or -1 if this scan does not aggregate */
+    public int aggregateField() {
+        return afield;
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        pageNo = 0;
+        page = null;
+        if (afield >= 0) {
+            intGroups = new IntHashIndex();
+            stringGroups = new HashMap<String, Integer>();
+            stringKeys = new ArrayList<String>();
+            acc = new long[16];
+            counts = new long[16];
+            numGroups = 0;
+            Tuple t;
+            while ((t = nextMatch()) != null)
+                merge(t);
+            nextGroup = 0;
+        }
+        super.open();
+    }
+
+    /** @return the next tuple satisfying every predicate, or null */
+    private Tuple nextMatch() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (page == null) {
+                if (pageNo >= file.numPages())
+                    return null;
+                page = (HeapPage) Database.getBufferPool().getPage(tid, tableid, pageNo++, 0,
+                        Permissions.READ_ONLY);
+                if (slots == null) {
+                    slots = new int[page.getNumSlots()];
+                    filter = PageFilter.compile(page, preds);
+                }
+                numSelected = page.select(preds, filter, slots);
+                slot = 0;
+            }
+            while (slot < numSelected) {
+                int s = slots[slot++];
+                // only the tuples that match are built from the page's bytes
+                if (page.stillSelected(s, preds))
+                    return page.tuple(s);
+            }
+            page = null;
+        }
+    }
+
+    private void merge(Tuple t) {
+        int g;
+        if (gfield == Aggregator.NO_GROUPING) {
+            g = 0;
+        } else if (scanTd.getFieldType(gfield) == Type.INT_TYPE) {
+            g = intGroups.getOrAdd(t.getInt(gfield));
+        } else {
+            String key = t.getString(gfield);
+            Integer boxed = stringGroups.get(key);
+            if (boxed == null) {
+                boxed = stringKeys.size();
+                stringGroups.put(key, boxed);
+                stringKeys.add(key);
+            }
+            g = boxed;
+        }
+        if (g == numGroups) {
+            if (g == acc.length) {
+                acc = Arrays.copyOf(acc, g * 2);
+                counts = Arrays.copyOf(counts, g * 2);
+            }
+            acc[g] = aop == Aggregator.Op.MIN ? Long.MAX_VALUE
+                    : aop == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+            numGroups++;
+        }
+        counts[g]++;
+        if (aop == Aggregator.Op.COUNT)
+            return;
+        int v = t.getInt(afield);
+        switch (aop) {
+        case MIN:
+            if (v < acc[g]) acc[g] = v;
+            break;
+        case MAX:
+            if (v > acc[g]) acc[g] = v;
+            break;
+        default: // SUM, AVG
+            acc[g] += v;
+            break;
+        }
+    }
+
+    private Tuple group(int g) {
+        int value;
+        switch (aop) {
+        case COUNT:
+            value = (int) counts[g];
+            break;
+        case AVG:
+            value = (int) (acc[g] / counts[g]);
+            break;
+        default:
+            value = (int) acc[g];
+            break;
+        }
+        Tuple t = new IntTuple(td);
+        if (gfield == Aggregator.NO_GROUPING) {
+            t.setInt(0, value);
+        } else {
+            if (td.getFieldType(0) == Type.INT_TYPE)
+                t.setInt(0, intGroups.keyAt(g));
+            else
+                t.setField(0, new StringField(stringKeys.get(g), Type.STRING_LEN));
+            t.setInt(1, value);
+        }
+        return t;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (afield < 0)
+            return nextMatch();
+        return nextGroup < numGroups ? group(nextGroup++) : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (afield < 0) {
+            pageNo = 0;
+            page = null;
+        } else {
+            nextGroup = 0;
+        }
+    }
+
+    public void close() {
+        super.close();
+        file = null;
+        page = null;
+        slots = null;
+        filter = null;
+        intGroups = null;
+        stringGroups = null;
+        stringKeys = null;
+        acc = null;
+        counts = null;
+    }
+
+    /** A FusedScan reads its table directly and has no child operators. */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{null};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("FusedScan has no children");
+    }
+}
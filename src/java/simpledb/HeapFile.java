@@ -26,11 +26,31 @@ public class HeapFile implements DbFile {
      */
     private final File file;
     private final TupleDesc td;
+    private final int tableid;
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, Catalog.assignTableId(f));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file with an explicit
+     * table id, e.g. one the catalog persisted in an earlier run.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples in f
+     * @param tableid
+     *            the id returned by getId()
+     */
+    public HeapFile(File f, TupleDesc td, int tableid) {
         this.file = f;
         this.td = td;
+        this.tableid = tableid;
+        // the file may have been replaced since DirectIO last read it
+        DirectIO.close(f);
     }
 
     /**
@@ -44,17 +64,15 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere to ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * Returns an ID uniquely identifying this HeapFile. The id is a small
+     * dense integer assigned by the catalog (see Catalog.assignTableId), so
+     * unlike a hash of the file name it cannot collide with another table.
      *
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
         // getId()：返回唯一标识此HeapFile的ID。
-        return file.getAbsoluteFile().hashCode();
+        return tableid;
     }
 
     /**
@@ -72,10 +90,11 @@ public class HeapFile implements DbFile {
         // readPage(PageId pid)：读取pid对应的Page。先找到File内要读取的Page Number，读取整个Page返回。
         Page res = null;
         byte[] data = new byte[BufferPool.getPageSize()];
-        try(RandomAccessFile raf = new RandomAccessFile(getFile(), "r")){
-            int pos = pid.getPageNumber() * BufferPool.getPageSize();
-            raf.seek(pos);
-            raf.read(data, 0, data.length);
+        try{
+            // DirectIO falls back to a plain RandomAccessFile read unless
+            // direct I/O is enabled
+            long pos = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            DirectIO.read(getFile(), pos, data);
             res = new HeapPage((HeapPageId)pid, data);
         }
         catch (IOException e) {
@@ -99,6 +118,11 @@ public class HeapFile implements DbFile {
         f.close();
     }
 
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo, int pgcateg) {
+        return new HeapPageId(getId(), pgNo);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -168,66 +192,250 @@ public class HeapFile implements DbFile {
         // necessary for lab2
     }
 
+    /**
+     * Measures how much of this file a sequential scan reads for nothing:
+     * 1 - (pages needed to hold the live tuples) / (pages in the file).
+     * 0 means the file is perfectly packed; 0.5 means a compaction would
+     * halve the pages a SeqScan reads. Takes a shared lock on every page.
+     *
+     * @param tid the transaction on whose behalf the pages are read
+     * @return the fragmentation of this file in [0, 1)
+     */
+    public double fragmentation(TransactionId tid) throws DbException, TransactionAbortedException {
+        int n = numPages();
+        if(n == 0)
+            return 0.0;
+        long used = 0;
+        int slotsPerPage = 0;
+        for(int i = 0; i < n; i ++){
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, getId(), i, 0, Permissions.READ_ONLY);
+            slotsPerPage = page.getNumSlots();
+            used += slotsPerPage - page.getNumEmptySlots();
+        }
+        long needed = (used + slotsPerPage - 1) / slotsPerPage;
+        return 1.0 - (double) needed / n;
+    }
+
+    /**
+     * Moves tuples from the last pages of this file into empty slots of the
+     * first pages, so that the tail pages end up empty and can be removed by
+     * truncate(). The moves are ordinary updates made on behalf of tid: every
+     * page touched is write locked and dirtied, and they become durable when
+     * tid commits (or are rolled back if it aborts).
+     * <p>
+     * Moved tuples get new RecordIds; anything that remembers RecordIds of
+     * this file must be updated from the returned map.
+     *
+     * @param tid the transaction performing the compaction
+     * @return the old RecordId -> new RecordId of every moved tuple
+     */
+    public Map<RecordId, RecordId> compact(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        Map<RecordId, RecordId> moved = new LinkedHashMap<>();
+        BufferPool bp = Database.getBufferPool();
+        int head = 0;
+        int tail = numPages() - 1;
+        HeapPage dst = null;
+        while(head < tail){
+            if(dst == null){
+                dst = (HeapPage) bp.getPage(tid, getId(), head, 0, Permissions.READ_WRITE);
+                if(dst.getNumEmptySlots() == 0){
+                    // nothing to fill here, let others at it (as insertTuple does)
+                    if(dst.isDirty() == null)
+                        bp.releasePage(tid, dst.getId());
+                    dst = null;
+                    head ++;
+                    continue;
+                }
+            }
+            HeapPage src = (HeapPage) bp.getPage(tid, getId(), tail, 0, Permissions.READ_WRITE);
+            Iterator<Tuple> it = src.iterator();
+            boolean changed = false;
+            while(it.hasNext() && dst.getNumEmptySlots() > 0){
+                Tuple t = it.next();
+                RecordId from = t.getRecordId();
+                src.deleteTuple(t);
+                dst.insertTuple(t);
+                moved.put(from, t.getRecordId());
+                changed = true;
+            }
+            if(changed){
+                src.markDirty(true, tid);
+                dst.markDirty(true, tid);
+            }
+            if(src.getNumEmptySlots() == src.getNumSlots())
+                tail --;
+            if(dst.getNumEmptySlots() == 0){
+                dst = null;
+                head ++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Removes the empty pages at the end of this file. Only pages that are
+     * empty both in the buffer pool and on disk (i.e. not dirty) are
+     * removed, so run this in a transaction of its own after the one that
+     * ran compact() has committed.
+     *
+     * @param tid the transaction performing the truncation
+     * @return the number of pages removed
+     */
+    public int truncate(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        int n = numPages();
+        int newNumPages = n;
+        while(newNumPages > 0){
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, getId(), newNumPages - 1, 0, Permissions.READ_WRITE);
+            if(page.isDirty() != null || page.getNumEmptySlots() != page.getNumSlots())
+                break;
+            newNumPages --;
+        }
+        if(newNumPages == n)
+            return 0;
+        for(int i = newNumPages; i < n; i ++)
+            Database.getBufferPool().discardPage(new HeapPageId(getId(), i));
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength((long) newNumPages * BufferPool.getPageSize());
+        }
+        return n - newNumPages;
+    }
+
+    /**
+     * Compacts this file online: runs compact() in one transaction, commits
+     * it, then runs truncate() in a second one. Concurrent transactions are
+     * only blocked on the pages being moved.
+     *
+     * @return the old RecordId -> new RecordId of every moved tuple
+     * @see #fragmentation
+     */
+    public Map<RecordId, RecordId> vacuum() throws DbException, IOException, TransactionAbortedException {
+        Map<RecordId, RecordId> moved;
+        Transaction t = new Transaction();
+        t.start();
+        boolean done = false;
+        try{
+            moved = compact(t.getId());
+            done = true;
+        } finally {
+            t.transactionComplete(!done);
+        }
+        t = new Transaction();
+        t.start();
+        done = false;
+        try{
+            truncate(t.getId());
+            done = true;
+        } finally {
+            t.transactionComplete(!done);
+        }
+        return moved;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy every
+     * predicate. The predicates are tested by {@link HeapPage#select} on
+     * each page, through a {@link PageFilter} when they can be compiled, so
+     * only the tuples that pass are built.
+     *
+     * @param tid the transaction the pages are read on behalf of
+     * @param preds the predicates, in the order they are tested
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+        return new HeapFileIterator(this, tid, preds.clone());
     }
+
     //add---
     private static final class HeapFileIterator implements DbFileIterator{
         private final HeapFile heapFile;
         private final TransactionId tid;
-        private Iterator<Tuple> it;
+        private final Predicate[] preds;
+        private HeapPage page;
+        // the tested int predicates, compiled once the first page is read
+        private PageFilter filter;
+        private boolean compiled;
+        // the slots of page that were used, and matched, when it was read,
+        // and the next one
+        private int[] slots;
+        private int pos;
         private int thePage;
+        private Tuple next;
 
-        public HeapFileIterator(HeapFile file,TransactionId tid){
+        public HeapFileIterator(HeapFile file,TransactionId tid,Predicate[] preds){
             this.heapFile = file;
             this.tid = tid;
+            this.preds = preds;
         }
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            // TODO Auto-generated method stub
             thePage = 0;
-            it = getPageTuples(thePage);
+            next = null;
+            readPage(thePage);
         }
 
-        private Iterator<Tuple> getPageTuples(int pageNumber) throws TransactionAbortedException, DbException{
+        private void readPage(int pageNumber) throws TransactionAbortedException, DbException{
             if(pageNumber >= 0 && pageNumber < heapFile.numPages()){
-                HeapPageId pid = new HeapPageId(heapFile.getId(),pageNumber);
-                HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                page = (HeapPage)Database.getBufferPool().getPage(tid, heapFile.getId(), pageNumber, 0, Permissions.READ_ONLY);
+                int n = 0;
+                slots = new int[page.getNumSlots()];
+                if (preds.length == 0) {
+                    for (int i = 0; i < slots.length; i++) {
+                        if (page.isSlotUsed(i))
+                            slots[n++] = i;
+                    }
+                } else {
+                    if (!compiled) {
+                        filter = PageFilter.compile(page, preds);
+                        compiled = true;
+                    }
+                    n = page.select(preds, filter, slots);
+                }
+                slots = Arrays.copyOf(slots, n);
+                pos = 0;
             }else{
                 throw new DbException(String.format("heapfile %d doesn't contains page %d.", pageNumber,heapFile.getId()));
             }
         }
 
+        /** @return the next matching tuple, reading pages as needed, or null */
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (pos < slots.length) {
+                    int slot = slots[pos++];
+                    // a tuple deleted since the page was read is not returned
+                    if (preds.length == 0 ? page.isSlotUsed(slot) : page.stillSelected(slot, preds))
+                        return page.tuple(slot);
+                }
+                if (thePage >= heapFile.numPages() - 1)
+                    return null;
+                readPage(++thePage);
+            }
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            // TODO Auto-generated method stub
-            if(it == null){
+            if(page == null){
                 return false;
             }
-
-            if(!it.hasNext()){
-                if(thePage < (heapFile.numPages()-1)){
-                    thePage++;
-                    it = getPageTuples(thePage);
-                    return it.hasNext();
-                }else{
-                    return false;
-                }
-            }else{
-                return true;
-            }
+            if (next == null)
+                next = fetch();
+            return next != null;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            // TODO Auto-generated method stub
-            if(it == null || !it.hasNext()){
+            if(!hasNext()){
                 throw new NoSuchElementException();
             }
-            return it.next();
+            Tuple t = next;
+            next = null;
+            return t;
         }
 
         @Override
@@ -240,9 +448,10 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             // TODO Auto-generated method stub
-            it = null;
+            page = null;
+            slots = null;
+            next = null;
         }
 
     }
 }
-
@@ -2,10 +2,18 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page read from disk keeps the bytes it was read from, and the tuple in
+ * a slot is only built from them the first time it is asked for, by
+ * {@link #tuple}. {@link #matches} tests predicates on int fields directly
+ * against those bytes, so a scan with predicates builds only the tuples
+ * that pass. Once a slot's tuple is built, or a tuple is inserted into it,
+ * the tuple rather than the bytes holds the slot's contents.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,14 +24,24 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    // the tuple of each used slot, null until it is built from data; an
+    // AtomicReferenceArray so that a tuple built by one reader is seen whole
+    // by the others scanning the page
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    // the bytes the page was read from, never modified, and the offset of
+    // each field within a tuple
+    private final byte[] data;
+    private final int[] fieldOffsets;
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
     private TransactionId dirtyId;
     private boolean dirty;
+    // true once a tuple was inserted, so that data no longer holds every
+    // used slot
+    private boolean inserted;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -53,17 +71,15 @@ public class HeapPage implements Page {
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
             header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
         dis.close();
 
+        // the records are read from data when first needed
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+        this.data = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
         setBeforeImage();
     }
 
@@ -121,40 +137,81 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the offset in data of the tuple in slot slotId */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /** @return the int at offset off of data, as written by DataOutputStream */
+    private int readInt(int off) {
+        return (data[off] & 0xFF) << 24 | (data[off+1] & 0xFF) << 16
+                | (data[off+2] & 0xFF) << 8 | (data[off+3] & 0xFF);
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Builds the tuple stored in slot slotId of data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // readNextTuple(DataInputStream dis, int slotId)：寻找到下一个被占用的slot，返回读取的tuple。
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple readTuple(int slotId) {
+        Tuple t = new IntTuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            int f = off + fieldOffsets[j];
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setInt(j, readInt(f));
+            } else {
+                t.setField(j, new StringField(readString(f), Type.STRING_LEN));
             }
-            return null;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /** @return the string at offset off of data, as Type.STRING_TYPE.parse() reads it */
+    private String readString(int off) {
+        int len = Math.max(0, Math.min(readInt(off), Type.STRING_LEN));
+        return new String(data, off + 4, len);
+    }
 
+    /**
+     * Returns the tuple in slot i, building it from the page's bytes the
+     * first time. Two threads reading the same slot may both build it; the
+     * first one stored is published to both.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    Tuple tuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = tuples.get(i);
+        if (t == null && !tuples.compareAndSet(i, null, t = readTuple(i)))
+            t = tuples.get(i);
         return t;
     }
 
+    /**
+     * Returns true if the tuple in used slot i satisfies every predicate.
+     * A predicate comparing an int field with an int is tested on the
+     * page's bytes while the slot's tuple is not built; the tuple is only
+     * built for the other predicates.
+     */
+    boolean matches(int i, Predicate[] preds) {
+        Tuple t = tuples.get(i);
+        for (Predicate p : preds) {
+            int f = p.getField();
+            if (t == null && td.getFieldType(f) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                int v = readInt(slotOffset(i) + fieldOffsets[f]);
+                if (!IntField.compare(v, p.getOp(), ((IntField) p.getOperand()).getValue()))
+                    return false;
+            } else {
+                if (t == null)
+                    t = tuple(i);
+                if (!p.filter(t))
+                    return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -183,7 +240,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -198,12 +255,22 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot, still as it was read
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        dos.writeInt(t.getInt(j));
+                    else
+                        t.getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -211,7 +278,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -252,13 +319,14 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // deleteTuple(Tuple t)：从此页中删除特定的tuple数据，同时修改header中对应的bit，指示此slot处的数据已经被删除了。
         // necessary for lab2!
-        int tupno = t.getRecordId().getTupleNumber();
+        RecordId rid = t.getRecordId();
+        if(rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("the tuple is not in this page!");
+        int tupno = rid.getTupleNumber();
         if(!isSlotUsed(tupno))
             throw new DbException("the tuple slot is empty!");
-        if(tuples[tupno] == null)
-            throw new DbException("the tuple is not in this page!");
         markSlotUsed(tupno, false);
-        tuples[tupno] = null;
+        tuples.set(tupno, null);
     }
 
     /**
@@ -279,7 +347,8 @@ public class HeapPage implements Page {
             if(!isSlotUsed(i)){
                 t.setRecordId(new RecordId(pid, i));
                 markSlotUsed(i, true);
-                tuples[i] = t;
+                tuples.set(i, t);
+                inserted = true;
                 return;
             }
         }
@@ -318,6 +387,13 @@ public class HeapPage implements Page {
         return cnt;
     }
 
+    /**
+     * Returns the total number of tuple slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -348,6 +424,66 @@ public class HeapPage implements Page {
             header[Math.floorDiv(i, 8)] = (byte)(b & (~mask));
     }
 
+    /**
+     * Writes the used slots whose tuples satisfy every predicate to out, in
+     * slot order. Until a tuple is inserted into the page, filter, compiled
+     * by {@link PageFilter#compile} for preds, tests the page's bytes, of
+     * which any built tuple is a copy; otherwise, or without a filter, every
+     * slot is tested by {@link #matches}.
+     *
+     * @param out
+     *            receives the selected slots; holds at least getNumSlots()
+     * @return the number of slots written to out
+     */
+    int select(Predicate[] preds, PageFilter filter, int[] out) {
+        if (filter != null && !inserted)
+            return filter.select(header, data, out);
+        int n = 0;
+        for (int s = 0; s < numSlots; s++) {
+            if (isSlotUsed(s) && matches(s, preds))
+                out[n++] = s;
+        }
+        return n;
+    }
+
+    /**
+     * Returns true if slot s, returned by {@link #select}, is still used and
+     * still satisfies preds. Only a tuple built since is tested again, as it
+     * may have been inserted after the slot was selected.
+     */
+    boolean stillSelected(int s, Predicate[] preds) {
+        return isSlotUsed(s) && (tuples.get(s) == null || matches(s, preds));
+    }
+
+    /**
+     * Appends the tuples in slots [slot, numSlots) of this page to batch
+     * until the batch is full. Fields are copied into the batch's columns
+     * straight from the page's bytes; only slots whose tuple is already
+     * built are read from it.
+     *
+     * @return the slot to resume from; getNumSlots() once the page is done
+     */
+    int fill(ColumnBatch batch, int slot) {
+        int row = batch.size();
+        int capacity = batch.capacity();
+        int numFields = td.numFields();
+        for (; slot < numSlots && row < capacity; slot++) {
+            if (!isSlotUsed(slot))
+                continue;
+            Tuple t = tuples.get(slot);
+            int off = slotOffset(slot);
+            for (int j = 0; j < numFields; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    batch.intColumn(j)[row] = t == null ? readInt(off + fieldOffsets[j]) : t.getInt(j);
+                else
+                    batch.stringColumn(j)[row] = t == null ? readString(off + fieldOffsets[j]) : t.getString(j);
+            }
+            row++;
+        }
+        batch.setSize(row);
+        return slot;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -357,7 +493,7 @@ public class HeapPage implements Page {
         ArrayList<Tuple> filledTuples = new ArrayList<Tuple>();
         for(int i = 0; i < numSlots; i ++){
             if(isSlotUsed(i)){
-                filledTuples.add(tuples[i]);
+                filledTuples.add(tuple(i));
             }
         }
         return filledTuples.iterator();
@@ -0,0 +1,349 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * HybridHashJoin is an equality {@link Join} that builds a hash table over
+ * child1 and probes it with child2, within a budget on the number of build
+ * tuples held in memory.
+ * <p>
+ * If child1 fits in the budget, child2 is streamed through the table once.
+ * Otherwise both inputs are split by the hash of their join key into
+ * {@link #PARTITIONS} partitions, Grace-style. Partition 0 of child1 stays in
+ * memory while it fits, so child2 tuples that fall in it are joined as they
+ * are read (the hybrid part); the other partitions are written to
+ * {@link TupleSpillFile}s and joined pairwise once child2 is exhausted. A
+ * spilled build partition that is still over budget, for example because of
+ * one very common key, is joined a budget-sized chunk at a time.
+ */
+public class HybridHashJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the inputs are split into when they spill. */
+    public static final int PARTITIONS = 16;
+
+    private static final int PARTITION_BITS = 4;
+
+    /**
+     * Number of pages of child1 tuples held in memory when no budget is
+     * given, as for {@link BlockNestedLoopJoin#DEFAULT_BLOCK_PAGES}.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
+
+    private final int memoryTuples;
+    private final int field1;
+    private final int field2;
+
+    private transient OpIterator build;
+    private transient OpIterator probe;
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private int tableSize;
+
+    // partitioning state; null while child1 fits in memory
+    private transient TupleSpillFile[] buildFiles;
+    private transient TupleSpillFile[] probeFiles;
+    private boolean partitionZeroInMemory;
+    private int spilledPartitions;
+
+    // the spilled partition being joined, or -1 while child2 is streamed
+    private int partition;
+    private transient TupleSpillFile.Reader buildReader;
+    private transient TupleSpillFile.Reader probeReader;
+
+    private transient Tuple current;
+    private transient ArrayList<Tuple> matches;
+    private int matchPos;
+
+    /**
+     * Constructor. Holds {@link #DEFAULT_MEMORY_PAGES} pages of child1
+     * tuples in memory.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     */
+    public HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2,
+                BlockNestedLoopJoin.blockTuples(child1.getTupleDesc(), DEFAULT_MEMORY_PAGES));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     * @param memoryTuples
+     *            the maximum number of child1 tuples held in memory
+     */
+    public HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HybridHashJoin needs an EQUALS predicate");
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryTuples);
+        this.memoryTuples = memoryTuples;
+        this.field1 = p.getField1();
+        this.field2 = p.getField2();
+    }
+
+    /** @return the maximum number of child1 tuples held in memory */
+    public int getMemoryTuples() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of partitions whose child1 tuples were written to
+     *         disk by the last open() or rewind()
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private static int partitionOf(Field key) {
+        return (key.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        build = children[0];
+        probe = children[1];
+        super.open();
+        buildTable();
+    }
+
+    public void close() {
+        super.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        buildTable();
+    }
+
+    /** Drops the hash table and deletes any spill files. */
+    private void reset() {
+        table = null;
+        tableSize = 0;
+        if (buildFiles != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildFiles[i] != null)
+                    buildFiles[i].delete();
+                if (probeFiles[i] != null)
+                    probeFiles[i].delete();
+            }
+        }
+        buildFiles = null;
+        probeFiles = null;
+        closeQuietly(buildReader);
+        closeQuietly(probeReader);
+        buildReader = null;
+        probeReader = null;
+        current = null;
+        matches = null;
+        partition = -1;
+    }
+
+    private static void closeQuietly(TupleSpillFile.Reader r) {
+        if (r == null)
+            return;
+        try {
+            r.close();
+        } catch (IOException e) {
+            // the file has been deleted
+        }
+    }
+
+    private void insert(HashMap<Field, ArrayList<Tuple>> map, Tuple t) {
+        Field key = t.getField(field1);
+        ArrayList<Tuple> l = map.get(key);
+        if (l == null) {
+            l = new ArrayList<Tuple>();
+            map.put(key, l);
+        }
+        l.add(t);
+    }
+
+    /**
+     * Reads child1 into the hash table, partitioning it if it does not fit.
+     */
+    private void buildTable() throws DbException, TransactionAbortedException {
+        reset();
+        spilledPartitions = 0;
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        try {
+            while (build.hasNext()) {
+                Tuple t = build.next();
+                if (buildFiles == null) {
+                    if (tableSize < memoryTuples) {
+                        insert(table, t);
+                        tableSize++;
+                        continue;
+                    }
+                    startPartitioning();
+                }
+                addBuildTuple(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Switches to partitioned mode once the table is full: moves every tuple
+     * outside partition 0 to its spill file.
+     */
+    private void startPartitioning() throws IOException {
+        buildFiles = new TupleSpillFile[PARTITIONS];
+        probeFiles = new TupleSpillFile[PARTITIONS];
+        partitionZeroInMemory = true;
+        HashMap<Field, ArrayList<Tuple>> full = table;
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        tableSize = 0;
+        for (ArrayList<Tuple> l : full.values()) {
+            for (Tuple t : l)
+                addBuildTuple(t);
+        }
+    }
+
+    private void addBuildTuple(Tuple t) throws IOException {
+        int p = partitionOf(t.getField(field1));
+        if (p == 0 && partitionZeroInMemory) {
+            if (tableSize < memoryTuples) {
+                insert(table, t);
+                tableSize++;
+                return;
+            }
+            // partition 0 does not fit either: spill it too
+            partitionZeroInMemory = false;
+            HashMap<Field, ArrayList<Tuple>> zero = table;
+            table = null;
+            tableSize = 0;
+            for (ArrayList<Tuple> l : zero.values()) {
+                for (Tuple z : l)
+                    spill(buildFiles, 0, z, build.getTupleDesc());
+            }
+        }
+        spill(buildFiles, p, t, build.getTupleDesc());
+    }
+
+    private void spill(TupleSpillFile[] files, int p, Tuple t, TupleDesc td) throws IOException {
+        if (files[p] == null) {
+            files[p] = new TupleSpillFile(td);
+            if (files == buildFiles)
+                spilledPartitions++;
+        }
+        files[p].add(t);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        TupleDesc td = getTupleDesc();
+        try {
+            while (true) {
+                if (matches != null && matchPos < matches.size())
+                    return new JoinedTuple(td, matches.get(matchPos++), current);
+                matches = null;
+                Tuple t2 = nextProbe();
+                if (t2 == null)
+                    return null;
+                if (table != null) {
+                    ArrayList<Tuple> l = table.get(t2.getField(field2));
+                    if (l != null) {
+                        current = t2;
+                        matches = l;
+                        matchPos = 0;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read spilled join input: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the next child2 tuple to look up in the current table. While
+     * child2 is streamed, tuples of spilled partitions are written to disk
+     * instead; afterwards the spilled partitions are joined one by one.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        if (partition < 0) {
+            while (probe.hasNext()) {
+                Tuple t2 = probe.next();
+                if (buildFiles == null)
+                    return t2;
+                int p = partitionOf(t2.getField(field2));
+                if (p == 0 && partitionZeroInMemory)
+                    return t2;
+                // a probe tuple whose build partition is empty has no match
+                if (buildFiles[p] != null)
+                    spill(probeFiles, p, t2, probe.getTupleDesc());
+            }
+            if (buildFiles == null)
+                return null;
+            partition = 0;
+            table = null;
+        }
+        while (true) {
+            if (probeReader != null) {
+                Tuple t2 = probeReader.next();
+                if (t2 != null)
+                    return t2;
+                probeReader = null;
+                if (loadChunk()) {
+                    probeReader = probeFiles[partition].reader();
+                    continue;
+                }
+                partition++;
+            }
+            while (partition < PARTITIONS
+                    && (buildFiles[partition] == null || probeFiles[partition] == null))
+                partition++;
+            if (partition == PARTITIONS) {
+                table = null;
+                return null;
+            }
+            buildReader = buildFiles[partition].reader();
+            loadChunk();
+            probeReader = probeFiles[partition].reader();
+        }
+    }
+
+    /**
+     * Loads the next budget-sized chunk of the current spilled build
+     * partition into the table.
+     *
+     * @return false if the partition has been read completely
+     */
+    private boolean loadChunk() throws IOException {
+        if (buildReader == null)
+            return false;
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        tableSize = 0;
+        Tuple t;
+        while (tableSize < memoryTuples && (t = buildReader.next()) != null) {
+            insert(table, t);
+            tableSize++;
+        }
+        if (tableSize < memoryTuples)
+            buildReader = null;
+        return tableSize > 0;
+    }
+}
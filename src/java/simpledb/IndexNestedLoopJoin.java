@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin is a {@link Join} whose inner relation is a
+ * {@link BTreeFile} keyed on the join field. Instead of scanning child2 for
+ * every outer tuple, it looks up the matching inner tuples with
+ * {@link BTreeFile#indexIterator}, so each outer tuple costs one descent of
+ * the tree plus the matching leaf entries.
+ * <p>
+ * child2 must be a SeqScan of such a file, optionally under Filters, whose
+ * predicates are applied to the tuples found in the index; see
+ * {@link #canProbe}. child2 is opened with the join but never read.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field1;
+    private final Predicate.Op indexOp;
+
+    private transient OpIterator outer;
+    private transient BTreeFile index;
+    private transient TransactionId tid;
+    private transient Predicate[] innerPreds;
+
+    private transient Tuple current;
+    private transient DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            the inner relation, which {@link #canProbe} must accept for
+     *            p's second field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2);
+        if (!canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("child2 is not an index on field " + p.getField2());
+        this.field1 = p.getField1();
+        this.indexOp = reverse(p.getOperator());
+    }
+
+    /**
+     * Returns the operator op' such that "a op b" holds exactly when
+     * "b op' a" does, or throws if the index cannot search for it.
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case EQUALS: return Predicate.Op.EQUALS;
+        case LESS_THAN: return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN: return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            throw new IllegalArgumentException("an index cannot be probed with " + op);
+        }
+    }
+
+    /**
+     * Returns true if plan is a SeqScan of a B+ tree keyed on the given
+     * field, with any number of Filters above it.
+     */
+    public static boolean canProbe(OpIterator plan, int field) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        if (!(plan instanceof SeqScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        outer = children[0];
+        SeqScan scan = SeqScan.pushDown(children[1]);
+        index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        tid = scan.getTransactionId();
+        innerPreds = scan.getPredicates();
+        current = null;
+        matches = null;
+        super.open();
+    }
+
+    public void close() {
+        closeMatches();
+        super.close();
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        outer.rewind();
+        current = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        TupleDesc td = getTupleDesc();
+        while (true) {
+            if (matches != null) {
+                inner:
+                while (matches.hasNext()) {
+                    Tuple t2 = matches.next();
+                    for (Predicate p : innerPreds) {
+                        if (!p.filter(t2))
+                            continue inner;
+                    }
+                    return new JoinedTuple(td, current, t2);
+                }
+                closeMatches();
+            }
+            if (!outer.hasNext())
+                return null;
+            current = outer.next();
+            matches = index.indexIterator(tid, new IndexPredicate(indexOp, current.getField(field1)));
+            matches.open();
+        }
+    }
+}
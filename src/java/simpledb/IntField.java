@@ -48,31 +48,30 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Applies op to two int values the way {@link #compare(Predicate.Op, Field)}
+     * would to the corresponding IntFields, without creating them.
+     */
+    public static boolean compare(int value, Predicate.Op op, int other) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == other;
         case NOT_EQUALS:
-            return value != iVal.value;
-
+            return value != other;
         case GREATER_THAN:
-            return value > iVal.value;
-
+            return value > other;
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
-
+            return value >= other;
         case LESS_THAN:
-            return value < iVal.value;
-
+            return value < other;
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
-
+            return value <= other;
     case LIKE:
-        return value == iVal.value;
+        return value == other;
         }
-
         return false;
     }
 
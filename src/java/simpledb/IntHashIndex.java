@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntHashIndex numbers distinct int keys densely, 0, 1, 2, ..., in order of
+ * first insertion. Operators use the number to index parallel primitive
+ * arrays (aggregate accumulators, hash join chains), which avoids boxing
+ * every key into an Integer or IntField.
+ * <p>
+ * Open addressing with linear probing; keys are never removed.
+ */
+public class IntHashIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** slots[h] holds index + 1 of the key hashed there, or 0 if empty */
+    private int[] slots;
+    private int[] keys;
+    private int size;
+
+    /**
+     * @param expected the number of keys expected; the index grows past it
+     */
+    public IntHashIndex(int expected) {
+        int cap = 16;
+        while (cap < expected * 2)
+            cap <<= 1;
+        slots = new int[cap];
+        keys = new int[Math.max(8, expected)];
+        size = 0;
+    }
+
+    public IntHashIndex() {
+        this(16);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the index of key, or -1 if it has not been added
+     */
+    public int get(int key) {
+        int mask = slots.length - 1;
+        for (int h = hash(key) & mask; slots[h] != 0; h = (h + 1) & mask) {
+            if (keys[slots[h] - 1] == key)
+                return slots[h] - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of key, adding it with the next free index if it is
+     *         new
+     */
+    public int getOrAdd(int key) {
+        int mask = slots.length - 1;
+        int h = hash(key) & mask;
+        for (; slots[h] != 0; h = (h + 1) & mask) {
+            if (keys[slots[h] - 1] == key)
+                return slots[h] - 1;
+        }
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, size * 2);
+        keys[size] = key;
+        slots[h] = ++size;
+        if (size * 2 > slots.length)
+            rehash();
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int h = hash(keys[i]) & mask;
+            while (slots[h] != 0)
+                h = (h + 1) & mask;
+            slots[h] = i + 1;
+        }
+    }
+
+    /** @return the number of distinct keys added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key that was given index i */
+    public int keyAt(int i) {
+        return keys[i];
+    }
+
+    /** Removes all keys. */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+/**
+ * IntTuple is a Tuple that keeps its INT_TYPE fields in a single int[]
+ * instead of one IntField object per value; only STRING_TYPE fields are
+ * held as Field objects. HeapPage builds its tuples this way, so scanning a
+ * page of n-column int rows allocates one array per row rather than n
+ * IntFields.
+ * <p>
+ * getInt() and setInt() read and write the array directly. getField() still
+ * works for int fields: it boxes a value the first time it is asked for and
+ * keeps the IntField until the value is set again, so callers that have not
+ * moved to the typed accessors pay one allocation per field rather than one
+ * per call. Unlike a plain Tuple, an int field that has never been set reads
+ * as 0 rather than null.
+ */
+public class IntTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] ints;
+    // IntFields handed out by getField(), allocated on its first call
+    private transient IntField[] boxed;
+    // the schema the tuple was built with; resetTupleDesc() only renames
+    private final TupleDesc types;
+
+    /**
+     * Create a new tuple with the specified schema (type).
+     *
+     * @param td
+     *            the schema of this tuple. It must be a valid TupleDesc
+     *            instance with at least one field.
+     */
+    public IntTuple(TupleDesc td) {
+        super(td, hasStrings(td) ? new Field[td.numFields()] : null);
+        ints = new int[td.numFields()];
+        types = td;
+    }
+
+    private boolean isInt(int i) {
+        return types.getFieldType(i) == Type.INT_TYPE;
+    }
+
+    private static boolean hasStrings(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.INT_TYPE)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (!isInt(i))
+            throw new ClassCastException("field " + i + " is not an INT_TYPE field");
+        return ints[i];
+    }
+
+    @Override
+    public void setInt(int i, int v) {
+        if (!isInt(i))
+            throw new ClassCastException("field " + i + " is not an INT_TYPE field");
+        ints[i] = v;
+        if (boxed != null)
+            boxed[i] = null;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (!isInt(i))
+            return super.getField(i);
+        IntField[] b = boxed;
+        if (b == null)
+            boxed = b = new IntField[ints.length];
+        IntField f = b[i];
+        if (f == null)
+            b[i] = f = new IntField(ints[i]);
+        return f;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (isInt(i)) {
+            ints[i] = ((IntField) f).getValue();
+            if (boxed != null)
+                boxed[i] = (IntField) f;
+        } else {
+            super.setField(i, f);
+        }
+    }
+}
@@ -1,17 +1,45 @@
 package simpledb;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Int group keys are numbered densely by an {@link IntHashIndex} and every
+ * group's aggregate is kept in parallel long arrays, so merging a tuple
+ * neither boxes its key nor allocates. Without grouping the aggregate is
+ * kept in two longs. Sums are exact in 64 bits; results are returned as
+ * IntFields, so a SUM outside the int range wraps while an AVG does not.
+ * Groups are returned in the order they were first seen.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+
+    // set by the first merged tuple
+    private TupleDesc rem;
+    private int valueField;
+
+    // the aggregate without grouping
+    private long acc0;
+    private long count0;
+
+    // per-group aggregates; group g has key intGroups.keyAt(g) or otherKeys.get(g)
+    private IntHashIndex intGroups;
+    private HashMap<Field, Integer> otherGroups;
+    private ArrayList<Field> otherKeys;
+    private long[] acc;
+    private long[] counts;
+    private int numGroups;
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -23,39 +51,53 @@ public class IntegerAggregator implements Aggregator {
      * @param what
      *            the aggregation operator
      */
-    static private final Field NULL_HASH_KEY=new IntField(2147483647);
-    private final int gbfield;
-    private final Type gbfieldtype;
-    private final int afield;
-    private final Op what;
-    private TupleDesc rem;
-    private ConcurrentHashMap<Field,items> res;
-    private String[] fieldName;
-
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
-        this.gbfield=gbfield;
-        this.gbfieldtype=gbfieldtype;
-        this.afield=afield;
-        this.what=what;
-        res=new ConcurrentHashMap<>();
-        fieldName=new String[2];
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        if (gbfield != Aggregator.NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE)
+                intGroups = new IntHashIndex();
+            else {
+                otherGroups = new HashMap<Field, Integer>();
+                otherKeys = new ArrayList<Field>();
+            }
+            acc = new long[16];
+            counts = new long[16];
+        }
+        acc0 = initial();
     }
 
-    public class items{
-        public int val;
-        public int ave;
-        public int sum;
-        public items(int val,int ave){
-            this.val=val; this.ave=ave; sum=0;
-        }
-        public items(int val){
-            this.val=val; this.ave=0; sum=0;
+    private long initial() {
+        return what == Op.MIN ? Long.MAX_VALUE : what == Op.MAX ? Long.MIN_VALUE : 0;
+    }
+
+    /**
+     * Reads the schema of the first tuple: names the output columns and
+     * picks the column to aggregate.
+     */
+    private void init(TupleDesc td) {
+        switch (what) {
+        case MIN: case MAX: case SUM: case AVG: case COUNT:
+            break;
+        default:
+            throw new UnsupportedOperationException("unsupported aggregate " + what);
         }
-        public items(){
-            this.val=0; this.ave=0; sum=0;
+        if (what == Op.COUNT || td.getFieldType(afield) == Type.INT_TYPE) {
+            valueField = afield;
+        } else if (gbfield != Aggregator.NO_GROUPING && td.getFieldType(gbfield) == Type.INT_TYPE) {
+            valueField = gbfield;
+        } else {
+            throw new UnsupportedOperationException("afield and gbfield is not INT_TYPE");
         }
+        if (gbfield == Aggregator.NO_GROUPING)
+            rem = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{td.getFieldName(afield)});
+        else
+            rem = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
+                    new String[]{td.getFieldName(gbfield), td.getFieldName(afield)});
     }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -64,70 +106,69 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup)
-            throws UnsupportedOperationException{
-        // some code goes here
-        Field hash_gbfield;
-        if(gbfield!=Aggregator.NO_GROUPING) hash_gbfield=tup.getField(gbfield);
-        else hash_gbfield=NULL_HASH_KEY;
-        int newNum;
-        if (tup.getField(afield).getType() == Type.INT_TYPE) {
-            IntField newField = (IntField) tup.getField(afield);
-            newNum = newField.getValue();
-        } else if(tup.getField(gbfield).getType() == Type.INT_TYPE){
-            IntField newField = (IntField) tup.getField(gbfield);
-            newNum = newField.getValue();
-        } else{
-            throw new UnsupportedOperationException("afield and gbfield is not INT_TYPE");
+            throws UnsupportedOperationException {
+        if (rem == null)
+            init(tup.getTupleDesc());
+        if (gbfield == Aggregator.NO_GROUPING) {
+            count0++;
+            if (what != Op.COUNT)
+                acc0 = fold(acc0, tup.getInt(valueField));
+            return;
         }
-        if(gbfield==Aggregator.NO_GROUPING) fieldName[0]=null;
-        else fieldName[0]=tup.getTupleDesc().getFieldName(gbfield);
-        fieldName[1]=tup.getTupleDesc().getFieldName(afield);
-
-        if(tup.getField(afield).getType()!=Type.INT_TYPE && tup.getField(gbfield).getType()!=Type.INT_TYPE)
-            throw new UnsupportedOperationException("not INT_TYPE");
-
-        if(!res.containsKey(hash_gbfield)){
-            items newItem=new items(newNum,0);
-            if(what==Op.AVG){
-                newItem.ave=1;
-                newItem.sum=newNum;
-            }
-            else if(what==Op.COUNT){
-                newItem.val=1;
-            }
-            res.put(hash_gbfield,newItem);
+        int g = groupOf(tup);
+        counts[g]++;
+        if (what != Op.COUNT)
+            acc[g] = fold(acc[g], tup.getInt(valueField));
+    }
+
+    private long fold(long a, int v) {
+        switch (what) {
+        case MIN:
+            return v < a ? v : a;
+        case MAX:
+            return v > a ? v : a;
+        default: // SUM, AVG
+            return a + v;
         }
-        else{
-            items newItem=res.get(hash_gbfield);
-            if(what==Op.AVG){
-                newItem.sum=newItem.sum+newNum;
-                newItem.ave++;
-                newItem.val=newItem.sum/newItem.ave;
+    }
+
+    /** @return the dense number of tup's group, adding the group if new */
+    private int groupOf(Tuple tup) {
+        int g;
+        if (intGroups != null) {
+            g = intGroups.getOrAdd(tup.getInt(gbfield));
+        } else {
+            Field key = tup.getField(gbfield);
+            Integer i = otherGroups.get(key);
+            if (i == null) {
+                i = otherKeys.size();
+                otherGroups.put(key, i);
+                otherKeys.add(key);
             }
-            else{
-                newItem.val=update(newItem.val,newNum,what);
+            g = i;
+        }
+        if (g == numGroups) {
+            if (g == acc.length) {
+                acc = Arrays.copyOf(acc, g * 2);
+                counts = Arrays.copyOf(counts, g * 2);
             }
-            res.replace(hash_gbfield,newItem);
+            acc[g] = initial();
+            numGroups++;
         }
+        return g;
     }
 
-    private int update(int val,int pre,Op op)
-            throws UnsupportedOperationException{
-        switch (op) {
-            case MAX:
-                return Math.max(val,pre);
-            case MIN:
-                return Math.min(val,pre);
-            case SUM:
-                return val+pre;
-            case COUNT:
-                return val+1;
-            default:
-                throw new UnsupportedOperationException("AVG is not here");
+    private int result(long a, long count) {
+        switch (what) {
+        case COUNT:
+            return (int) count;
+        case AVG:
+            return (int) (a / count);
+        default:
+            return (int) a;
         }
     }
 
-
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -137,62 +178,66 @@ public class IntegerAggregator implements Aggregator {
      *         the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
         return new IntegerAggregateIterator();
     }
-    class IntegerAggregateIterator implements OpIterator{
+
+    class IntegerAggregateIterator implements OpIterator {
         private ArrayList<Tuple> remTu;
         private Iterator<Tuple> it;
+
         public IntegerAggregateIterator() {
             remTu = new ArrayList<>();
-            for (ConcurrentHashMap.Entry<Field, items> it : res.entrySet()) {
-                Type[] fieldType;
-                String[] fieldNameAr;
-                if(gbfield==Aggregator.NO_GROUPING){
-                    fieldType=new Type[]{Type.INT_TYPE};
-                    fieldNameAr=new String[]{fieldName[1]};
-                }
-                else{
-                    fieldType=new Type[]{gbfieldtype,Type.INT_TYPE};
-                    fieldNameAr=new String[]{fieldName[0],fieldName[1]};
-                }
-                rem=new TupleDesc(fieldType,fieldNameAr);
-                Tuple t = new Tuple(rem);
-
-                if (gbfield == Aggregator.NO_GROUPING){
-                    t.setField(0, new IntField(it.getValue().val));
-                }
-                else{
-                    t.setField(0, it.getKey());
-                    t.setField(1, new IntField(it.getValue().val));
+            if (rem == null)
+                return;
+            if (gbfield == Aggregator.NO_GROUPING) {
+                Tuple t = new IntTuple(rem);
+                t.setInt(0, result(acc0, count0));
+                remTu.add(t);
+                return;
+            }
+            for (int g = 0; g < numGroups; g++) {
+                Tuple t;
+                if (intGroups != null) {
+                    t = new IntTuple(rem);
+                    t.setInt(0, intGroups.keyAt(g));
+                } else {
+                    t = new Tuple(rem);
+                    t.setField(0, otherKeys.get(g));
                 }
+                t.setInt(1, result(acc[g], counts[g]));
                 remTu.add(t);
             }
         }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            it=remTu.iterator();
+            it = remTu.iterator();
         }
+
         @Override
-        public boolean hasNext() throws DbException,TransactionAbortedException{
+        public boolean hasNext() throws DbException, TransactionAbortedException {
             return it.hasNext();
         }
+
         @Override
-        public Tuple next(){
+        public Tuple next() {
             return it.next();
         }
+
         @Override
-        public void rewind() throws DbException,TransactionAbortedException{
+        public void rewind() throws DbException, TransactionAbortedException {
             this.close();
             this.open();
         }
+
         @Override
-        public TupleDesc getTupleDesc(){
+        public TupleDesc getTupleDesc() {
             return rem;
         }
+
         @Override
-        public void close(){
-            it=null;
+        public void close() {
+            it = null;
         }
     }
 }
@@ -23,6 +23,7 @@ public class Join extends Operator {
     private final JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
+    private TupleDesc comboTD;
     private Tuple tp;
 
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
@@ -30,6 +31,7 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
         this.tp = null;
     }
 
@@ -64,7 +66,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        return this.comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -114,15 +116,7 @@ public class Join extends Operator {
             while(this.child2.hasNext()){
                 Tuple tmp = this.child2.next();
                 if(this.p.filter(this.tp, tmp)){
-                    TupleDesc temp = TupleDesc.merge(this.tp.getTupleDesc(), tmp.getTupleDesc());
-                    Tuple res = new Tuple(temp);
-                    for(int i = 0; i < this.tp.getTupleDesc().numFields(); i ++){
-                        res.setField(i, this.tp.getField(i));
-                    }
-                    for(int i = 0; i < tmp.getTupleDesc().numFields(); i ++){
-                        res.setField(this.tp.getTupleDesc().numFields() + i, tmp.getField(i));
-                    }
-                    return res;
+                    return new JoinedTuple(this.comboTD, this.tp, tmp);
                 }
             }
             this.child2.rewind();
@@ -142,6 +136,7 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
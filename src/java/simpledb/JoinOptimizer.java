@@ -68,12 +68,110 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS && IndexNestedLoopJoin.canProbe(plan2, t2id)
+                && isPointLookup(plan1))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS && ParallelHashJoin.isEnabled())
+            j = new ParallelHashJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new HybridHashJoin(p, plan1, plan2);
+        else
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns true if plan restricts its table with an equality predicate on
+     * a constant and a key of the table, so that it is expected to return few
+     * tuples that are each best joined by probing an index. Subplans have no
+     * cardinality estimates when joins are instantiated, so this stands in
+     * for comparing costs; {@link #estimateJoinCost} only prices a probing
+     * join under the same condition.
+     */
+    private static boolean isPointLookup(OpIterator plan) {
+        if (plan instanceof Filter) {
+            Predicate pred = ((Filter) plan).getPredicate();
+            OpIterator child = ((Filter) plan).getChildren()[0];
+            return pred.getOp() == Predicate.Op.EQUALS && isKey(child, pred.getField())
+                    || isPointLookup(child);
+        }
+        Predicate[] preds;
+        if (plan instanceof FusedScan && ((FusedScan) plan).aggregateField() < 0)
+            preds = ((FusedScan) plan).getPredicates();
+        else if (plan instanceof SeqScan)
+            preds = ((SeqScan) plan).getPredicates();
+        else if (plan instanceof IndexNestedLoopJoin)
+            return isPointLookup(((IndexNestedLoopJoin) plan).getChildren()[0]);
+        else
+            return false;
+        for (Predicate pred : preds) {
+            if (pred.getOp() == Predicate.Op.EQUALS && isKey(plan, pred.getField()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if field of plan's tuples is read from the primary key of
+     * a table, or from the field its B+ tree is keyed on
+     */
+    private static boolean isKey(OpIterator plan, int field) {
+        if (plan instanceof Filter)
+            return isKey(((Filter) plan).getChildren()[0], field);
+        if (plan instanceof IndexNestedLoopJoin) {
+            OpIterator outer = ((IndexNestedLoopJoin) plan).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isKey(outer, field);
+        }
+        int tableid;
+        if (plan instanceof FusedScan && ((FusedScan) plan).aggregateField() < 0)
+            tableid = ((FusedScan) plan).getTableId();
+        else if (plan instanceof SeqScan)
+            tableid = ((SeqScan) plan).getTableId();
+        else
+            return false;
+        return isKeyField(tableid, field);
+    }
+
+    /**
+     * Returns true if field of the given table is its primary key, or the
+     * field its B+ tree is keyed on
+     */
+    private static boolean isKeyField(int tableid, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == field)
+            return true;
+        String pk = Database.getCatalog().getPrimaryKey(tableid);
+        return pk != null && pk.equals(f.getTupleDesc().getFieldName(field));
+    }
+
+    /**
+     * Returns true if the query restricts the given table with an equality
+     * filter on one of its keys, the logical form of
+     * {@link #isPointLookup(OpIterator)} for the scan of that table
+     */
+    private boolean isPointLookup(String tableAlias) {
+        Integer tableid = p == null ? null : p.getTableId(tableAlias);
+        if (tableid == null)
+            return false;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        for (LogicalFilterNode f : p.getFilters()) {
+            if (!f.tableAlias.equals(tableAlias) || f.p != Predicate.Op.EQUALS)
+                continue;
+            try {
+                if (isKeyField(tableid, td.fieldNameToIndex(f.fieldPureName)))
+                    return true;
+            } catch (NoSuchElementException e) {
+                // not a field of the table
+            }
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -107,14 +205,77 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            if (j.p == Predicate.Op.EQUALS) {
+                boolean innerIndexed = isIndexKey(j.t2Alias, j.f2PureName);
+                // SortMergeJoin over two indexes on the join fields, or
+                // HybridHashJoin: one pass over each input, plus writing and
+                // reading back the spilled partitions when the outer does
+                // not fit in memory
+                double cost = cost1 + cost2 + card1 + card2;
+                if (card1 > outerBlockTuples(j.t1Alias)
+                        && !(innerIndexed && isIndexKey(j.t1Alias, j.f1PureName))) {
+                    double spilled = 1.0 - 1.0 / HybridHashJoin.PARTITIONS;
+                    cost += 2 * spilled * (cost1 + cost2);
+                }
+                // IndexNestedLoopJoin: one descent of the inner's B+ tree
+                // per outer tuple instead of a scan of the inner; only built
+                // for an outer restricted to one value of a key
+                if (innerIndexed && isPointLookup(j.t1Alias))
+                    cost = Math.min(cost, cost1 + card1 * (indexProbeCost(j.t2Alias, cost2) + 1));
+                return cost;
+            }
+            // BlockNestedLoopJoin: one scan of the inner per outer block,
+            // and one predicate test per pair of tuples
+            double blocks = Math.ceil((double) card1 / outerBlockTuples(j.t1Alias));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * Returns true if the given table is a B+ tree keyed on the given field,
+     * so that scanning it returns tuples in join order.
+     */
+    private boolean isIndexKey(String tableAlias, String field) {
+        Integer tableid = p == null ? null : p.getTableId(tableAlias);
+        if (tableid == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            return false;
+        try {
+            return f.getTupleDesc().fieldNameToIndex(field) == ((BTreeFile) f).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the cost of looking up one key in the B+ tree of the given
+     * table: one page read per level, each costing what a page of a full scan
+     * of the table costs.
+     */
+    private double indexProbeCost(String tableAlias, double scanCost) {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(p.getTableId(tableAlias));
+        int pages = Math.max(1, f.numPages());
+        int keyLen = f.getTupleDesc().getFieldType(f.keyField()).getLen();
+        // an internal entry is a key and a child page number
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + Type.INT_TYPE.getLen()));
+        double height = 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
+        return height * scanCost / pages;
+    }
+
+    /**
+     * Returns the number of outer tuples BlockNestedLoopJoin buffers per block,
+     * and HybridHashJoin holds in memory, when the outer relation is the
+     * given table. Unknown tables are assumed to hold a single int field.
+     */
+    private int outerBlockTuples(String tableAlias) {
+        Integer tableid = p == null ? null : p.getTableId(tableAlias);
+        TupleDesc td = tableid == null ? Utility.getTupleDesc(1)
+                : Database.getCatalog().getTupleDesc(tableid);
+        return BlockNestedLoopJoin.blockTuples(td, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -45,6 +45,8 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // filter(Tuple t1, Tuple t2)：将Predicate用于两个特定tuples。
+        if (t1.getTupleDesc().getFieldType(this.field1) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(this.field1), this.op, t2.getInt(this.field2));
         return t1.getField(this.field1).compare(this.op, t2.getField(this.field2));
     }
     
@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * JoinedTuple is the output row of a join: a view of a left and a right
+ * tuple whose fields are the left tuple's followed by the right tuple's.
+ * Building one allocates neither a field array nor any Field, and typed
+ * reads go straight to the side that holds the value.
+ * <p>
+ * The view reflects later changes to either side until one of its own fields
+ * is set: the first setField() or setInt() copies every field into the
+ * tuple, so that the sides, which other output rows may share, are never
+ * modified.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int split;
+    // every field, once one was set
+    private Field[] own;
+
+    /**
+     * Creates the concatenation of left and right.
+     *
+     * @param td
+     *            the merged schema, as returned by
+     *            {@link TupleDesc#merge(TupleDesc, TupleDesc)}
+     * @param left
+     *            the tuple providing the first fields
+     * @param right
+     *            the tuple providing the remaining fields
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.split = td.numFields() - right.getTupleDesc().numFields();
+    }
+
+    /** @return the tuple providing the first fields, as it was joined */
+    public Tuple getLeft() {
+        return left;
+    }
+
+    /** @return the tuple providing the remaining fields, as it was joined */
+    public Tuple getRight() {
+        return right;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (own != null)
+            return own[i];
+        return i < split ? left.getField(i) : right.getField(i - split);
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (own != null)
+            return ((IntField) own[i]).getValue();
+        return i < split ? left.getInt(i) : right.getInt(i - split);
+    }
+
+    @Override
+    public String getString(int i) {
+        if (own != null)
+            return ((StringField) own[i]).getValue();
+        return i < split ? left.getString(i) : right.getString(i - split);
+    }
+
+    /**
+     * Sets the ith field of this tuple only; the first call copies every
+     * field, after which later changes to the sides are no longer seen.
+     */
+    @Override
+    public void setField(int i, Field f) {
+        if (own == null) {
+            Field[] copy = new Field[getTupleDesc().numFields()];
+            for (int k = 0; k < copy.length; k++)
+                copy[k] = getField(k);
+            own = copy;
+        }
+        own[i] = f;
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements a LIMIT n without ORDER BY, or over
+ * a child already in the requested order: it returns the first n tuples of
+ * the child as they come.
+ * <p>
+ * The child is pulled one tuple at a time, so once n tuples are returned
+ * nothing more is read from it: over a scan of a {@link BTreeFile} in key
+ * order, only the leaf pages holding the first n keys are read.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The child operator
+     * @param limit
+     *            the number of tuples to return
+     */
+    public Limit(OpIterator child, int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        this.child = child;
+        this.limit = limit;
+    }
+
+    /** @return the number of tuples returned, at most */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the child's tuples until
+     * limit of them are returned
+     *
+     * @return The next tuple of the child, or null if limit tuples were
+     *         returned or the child has no more
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit || !child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,4 +1,6 @@
 package simpledb;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
@@ -12,9 +14,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * LogicalPlans can represent any number of aggregates over the same
+ * group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +31,13 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -105,6 +108,11 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** @return the filters of the WHERE clause, in the order they were added */
+    List<LogicalFilterNode> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -186,34 +194,63 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All aggregates of a query are computed over the same
+        groups, in one pass.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * for COUNT(*)
+        @param gfield a field to group by, or null; see also {@link #addGroupBy}
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
+        if (afield.equals("null.*") && getAggOp(op) != Aggregator.Op.COUNT)
+            throw new ParsingException("Only COUNT can aggregate over *");
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to the GROUP BY list of the query.  Output groups are
+        keyed on all of the fields added, in order.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Tuples equal on
+        the fields of the ORDER BY expressions added before are ordered by this one.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
+    }
+
+    /** Add a LIMIT: only the first n tuples of the result are returned, in the
+        ORDER BY order if there is one.
+        @param n the number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void setLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
+    /** @return the LIMIT of the query, or -1 if it has none */
+    public int getLimit() {
+        return limit;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -343,6 +380,22 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // run each table's scan and filters as a single loop where possible,
+        // and otherwise let a heap file's pages test the filters on their bytes
+        // (batch operators are not planned, see BatchOpIterator)
+        for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+            int tableId = tableMap.get(e.getKey());
+            FusedScan fused = FusedScan.fuse(t, tableId, e.getKey(), e.getValue());
+            if (fused != null) {
+                e.setValue(fused);
+            } else if (e.getValue() instanceof Filter
+                    && Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile) {
+                SeqScan pushed = SeqScan.pushDown(e.getValue());
+                if (pushed != null)
+                    e.setValue(pushed);
+            }
+        }
         
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
@@ -415,28 +468,38 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = -1;
+                for (int k = 0; k < aggOps.size() && agg < 0; k++) {
+                    if (aggOps.elementAt(k).equalsIgnoreCase(si.aggOp)
+                            && aggFields.elementAt(k).equals(si.fname))
+                        agg = k;
+                }
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,12 +524,32 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                for (int k = 0; k < afields.length; k++) {
+                    String f = aggFields.elementAt(k);
+                    // COUNT(*) counts the rows through any field
+                    afields[k] = f.equals("null.*") ? 0 : td.fieldNameToIndex(f);
+                    aops[k] = getAggOp(aggOps.elementAt(k));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                aggNode = null;
+                if (gfields.length == 1 && StreamingAggregate.isGroupedOn(node, gfields[0])) {
+                    // the input arrives a group at a time, so nothing needs hashing
+                    aggNode = new StreamingAggregate(node, afields, gfields[0], aops);
+                } else if (ParallelAggregate.isEnabled() && ParallelAggregate.supports(node)) {
+                    aggNode = new ParallelAggregate(node, afields, gfields, aops);
+                } else if (afields.length == 1 && gfields.length <= 1) {
+                    int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+                    // fold the aggregate into a fused scan when it supports it
+                    aggNode = FusedScan.aggregate(node, afields[0], gfield, aops[0]);
+                }
+                if (aggNode == null)
+                    aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,8 +558,22 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[fields.length];
+            for (int k = 0; k < fields.length; k++) {
+                fields[k] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(k));
+                asc[k] = oByAscs.elementAt(k);
+            }
+            if (limit < 0)
+                node = new OrderBy(fields, asc, node);
+            else if (fields.length == 1 && asc[0] && SortMergeJoin.isSortedOn(node, fields[0]))
+                // already in key order: stop reading after the first tuples
+                node = new Limit(node, limit);
+            else
+                node = new TopN(fields, asc, node, limit);
+        } else if (limit >= 0) {
+            node = new Limit(node, limit);
         }
 
         return new Project(outFields, outTypes, node);
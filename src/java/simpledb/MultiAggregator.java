@@ -0,0 +1,345 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Computes any number of aggregates over groups keyed on any number of
+ * fields, in one pass over the input and with one hash table.
+ * <p>
+ * Every group is numbered densely when first seen; each aggregate keeps a
+ * long accumulator per group, and the group's row count is shared by all
+ * of them. A single int group field is looked up in an {@link IntHashIndex};
+ * composite keys go through a HashMap whose probe key is reused, so only
+ * new groups allocate.
+ * <p>
+ * Output tuples hold the group fields, in the order given, followed by the
+ * aggregates. As in {@link IntegerAggregator}, aggregates are returned as
+ * ints (AVG truncates) and groups in the order they were first seen.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] whats;
+    private final TupleDesc td;
+    private final boolean[] intGroupField;
+
+    // exactly one of these is used, depending on the group fields
+    private IntHashIndex intGroups;
+    private HashMap<GroupKey, Integer> groups;
+    private ArrayList<GroupKey> keys;
+    private GroupKey probe;
+
+    private long[][] acc;
+    private long[] counts;
+    private int numGroups;
+
+    /**
+     * Constructor.
+     *
+     * @param childTd
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields; empty if there
+     *            is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregated fields
+     * @param whats
+     *            the aggregation operator for each of afields
+     * @throws IllegalArgumentException if the arrays do not match or an
+     *             operator cannot be computed over its field's type
+     */
+    public MultiAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] whats) {
+        if (afields.length == 0 || afields.length != whats.length)
+            throw new IllegalArgumentException("need one operator per aggregated field");
+        for (int a = 0; a < afields.length; a++) {
+            switch (whats[a]) {
+            case MIN: case MAX: case SUM: case AVG:
+                if (childTd.getFieldType(afields[a]) != Type.INT_TYPE)
+                    throw new IllegalArgumentException(whats[a] + " over a string field");
+                break;
+            case COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + whats[a]);
+            }
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.td = tupleDesc(childTd, gbfields, afields);
+        this.intGroupField = new boolean[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            intGroupField[i] = childTd.getFieldType(gbfields[i]) == Type.INT_TYPE;
+
+        if (gbfields.length == 1 && intGroupField[0]) {
+            intGroups = new IntHashIndex();
+        } else if (gbfields.length > 0) {
+            groups = new HashMap<GroupKey, Integer>();
+            keys = new ArrayList<GroupKey>();
+            probe = new GroupKey();
+        }
+        acc = new long[afields.length][16];
+        counts = new long[16];
+    }
+
+    /**
+     * Returns the schema of the tuples a MultiAggregator returns: the group
+     * fields followed by one int per aggregate, each named after the field
+     * it was computed from.
+     */
+    public static TupleDesc tupleDesc(TupleDesc childTd, int[] gbfields, int[] afields) {
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = childTd.getFieldType(gbfields[i]);
+            names[i] = childTd.getFieldName(gbfields[i]);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            types[gbfields.length + a] = Type.INT_TYPE;
+            names[gbfields.length + a] = childTd.getFieldName(afields[a]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** The values of a composite group key. */
+    private final class GroupKey {
+        final int[] ints = new int[gbfields.length];
+        final Field[] others = new Field[gbfields.length];
+        int hash;
+
+        void set(Tuple t) {
+            int h = 1;
+            for (int i = 0; i < gbfields.length; i++) {
+                if (intGroupField[i]) {
+                    ints[i] = t.getInt(gbfields[i]);
+                    h = 31 * h + ints[i];
+                } else {
+                    others[i] = t.getField(gbfields[i]);
+                    h = 31 * h + others[i].hashCode();
+                }
+            }
+            hash = h;
+        }
+
+        void set(GroupKey k) {
+            System.arraycopy(k.ints, 0, ints, 0, ints.length);
+            System.arraycopy(k.others, 0, others, 0, others.length);
+            hash = k.hash;
+        }
+
+        GroupKey copy() {
+            GroupKey k = new GroupKey();
+            System.arraycopy(ints, 0, k.ints, 0, ints.length);
+            System.arraycopy(others, 0, k.others, 0, others.length);
+            k.hash = hash;
+            return k;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey))
+                return false;
+            GroupKey k = (GroupKey) o;
+            return hash == k.hash && Arrays.equals(ints, k.ints) && Arrays.equals(others, k.others);
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        mergeTupleIntoGroup(tup, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merges tup into its group unless the group is new and maxGroups groups
+     * exist already.
+     *
+     * @return false if tup was not merged
+     */
+    boolean mergeTupleIntoGroup(Tuple tup, int maxGroups) {
+        int g = groupOf(tup, maxGroups);
+        if (g < 0)
+            return false;
+        counts[g]++;
+        for (int a = 0; a < afields.length; a++) {
+            long[] ac = acc[a];
+            switch (whats[a]) {
+            case MIN: {
+                int v = tup.getInt(afields[a]);
+                if (v < ac[g]) ac[g] = v;
+                break;
+            }
+            case MAX: {
+                int v = tup.getInt(afields[a]);
+                if (v > ac[g]) ac[g] = v;
+                break;
+            }
+            case COUNT:
+                break;
+            default: // SUM, AVG
+                ac[g] += tup.getInt(afields[a]);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the dense number of tup's group, adding the group if new and
+     *         there are fewer than maxGroups, or -1 if it cannot be added
+     */
+    private int groupOf(Tuple tup, int maxGroups) {
+        int g;
+        if (intGroups != null) {
+            int key = tup.getInt(gbfields[0]);
+            g = numGroups < maxGroups ? intGroups.getOrAdd(key) : intGroups.get(key);
+            if (g < 0)
+                return -1;
+        } else if (groups != null) {
+            probe.set(tup);
+            Integer i = groups.get(probe);
+            if (i == null) {
+                if (numGroups >= maxGroups)
+                    return -1;
+                i = keys.size();
+                GroupKey k = probe.copy();
+                groups.put(k, i);
+                keys.add(k);
+            }
+            g = i;
+        } else {
+            g = 0;
+        }
+        return track(g);
+    }
+
+    /** Starts the aggregates of group g if it is new. */
+    private int track(int g) {
+        if (g == numGroups) {
+            if (g == counts.length) {
+                counts = Arrays.copyOf(counts, g * 2);
+                for (int a = 0; a < acc.length; a++)
+                    acc[a] = Arrays.copyOf(acc[a], g * 2);
+            }
+            for (int a = 0; a < acc.length; a++)
+                acc[a][g] = whats[a] == Op.MIN ? Long.MAX_VALUE
+                        : whats[a] == Op.MAX ? Long.MIN_VALUE : 0;
+            numGroups++;
+        }
+        return g;
+    }
+
+    /**
+     * Folds the groups of other, an aggregator over other rows with the same
+     * fields and operators, into this one. New groups are added in other's
+     * order. Sums and counts are added, so an AVG is still exact: the pair
+     * other keeps for it is a SUM_COUNT, and the average is only taken, as
+     * by SC_AVG, when the result is read.
+     */
+    void merge(MultiAggregator other) {
+        for (int og = 0; og < other.numGroups; og++) {
+            int g;
+            if (intGroups != null) {
+                g = intGroups.getOrAdd(other.intGroups.keyAt(og));
+            } else if (groups != null) {
+                probe.set(other.keys.get(og));
+                Integer i = groups.get(probe);
+                if (i == null) {
+                    i = keys.size();
+                    GroupKey k = probe.copy();
+                    groups.put(k, i);
+                    keys.add(k);
+                }
+                g = i;
+            } else {
+                g = 0;
+            }
+            g = track(g);
+            counts[g] += other.counts[og];
+            for (int a = 0; a < afields.length; a++) {
+                long v = other.acc[a][og];
+                long[] ac = acc[a];
+                switch (whats[a]) {
+                case MIN:
+                    if (v < ac[g]) ac[g] = v;
+                    break;
+                case MAX:
+                    if (v > ac[g]) ac[g] = v;
+                    break;
+                case COUNT:
+                    break;
+                default: // SUM, AVG
+                    ac[g] += v;
+                    break;
+                }
+            }
+        }
+    }
+
+    private int result(int a, int g) {
+        switch (whats[a]) {
+        case COUNT:
+            return (int) counts[g];
+        case AVG:
+            return (int) (acc[a][g] / counts[g]);
+        default:
+            return (int) acc[a][g];
+        }
+    }
+
+    /** @return the number of groups seen so far */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /** @return the schema of the tuples returned by iterator() */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group fields followed by the
+     *         aggregates; one tuple with just the aggregates if there is no
+     *         grouping and any tuple was merged
+     */
+    public OpIterator iterator() {
+        boolean allInts = true;
+        for (int i = 0; i < td.numFields(); i++)
+            allInts &= td.getFieldType(i) == Type.INT_TYPE;
+        ArrayList<Tuple> res = new ArrayList<Tuple>(numGroups);
+        int ng = gbfields.length;
+        for (int g = 0; g < numGroups; g++) {
+            Tuple t = allInts ? new IntTuple(td) : new Tuple(td);
+            if (intGroups != null)
+                t.setInt(0, intGroups.keyAt(g));
+            else if (keys != null) {
+                GroupKey k = keys.get(g);
+                for (int i = 0; i < ng; i++) {
+                    if (intGroupField[i])
+                        t.setInt(i, k.ints[i]);
+                    else
+                        t.setField(i, k.others[i]);
+                }
+            }
+            for (int a = 0; a < afields.length; a++)
+                t.setInt(ng + a, result(a, g));
+            res.add(t);
+        }
+        return new TupleIterator(td, res);
+    }
+}
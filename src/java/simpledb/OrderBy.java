@@ -4,17 +4,30 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child's tuples are sorted on one or more fields, each ascending or
+ * descending, by an {@link ExternalSorter} with a budget of memoryTuples:
+ * an input that fits is sorted in memory, a larger one is written to disk
+ * in sorted runs that are then merged. The sort is stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of pages of tuples held in memory when no budget is given, as
+     * for {@link BlockNestedLoopJoin#DEFAULT_BLOCK_PAGES}.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private boolean[] asc;
+    private final int memoryTuples;
+    private transient ExternalSorter sorter;
+    private transient ExternalSorter.Cursor cursor;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,50 +40,140 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that holds at most memoryTuples tuples in
+     * memory.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryTuples
+     *            the maximum number of tuples held in memory while sorting
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int memoryTuples) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryTuples);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: tuples equal
+     * on one are ordered by the next.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, major first.
+     * @param asc
+     *            for each field, true if its order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child,
+                BlockNestedLoopJoin.blockTuples(child.getTupleDesc(), DEFAULT_MEMORY_PAGES));
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields and holds at
+     * most memoryTuples tuples in memory.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, major first.
+     * @param asc
+     *            for each field, true if its order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryTuples
+     *            the maximum number of tuples held in memory while sorting
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryTuples) {
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryTuples);
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("one direction is needed for each of 1 or more fields");
+        this.memoryTuples = memoryTuples;
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
     }
     
+    /** @return true if the order on the first sort field is ascending */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /** @return the first sort field, the one the output is sorted on */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    /** @return the sort fields, major first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if its order is ascending */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the maximum number of tuples held in memory while sorting */
+    public int getMemoryTuples() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk since open(), 0 if
+     *         the input fit in memory or the operator is closed
+     */
+    public int getSpilledRuns() {
+        return sorter == null ? 0 : sorter.numRuns();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        deleteSorter();
+        sorter = new ExternalSorter(td, new TupleComparator(orderByFields, asc), memoryTuples);
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sorter.add(child.next());
+        cursor = sorter.cursor();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        deleteSorter();
+    }
+
+    private void deleteSorter() {
+        if (cursor != null)
+            cursor.close();
+        cursor = null;
+        if (sorter != null)
+            sorter.delete();
+        sorter = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        cursor.close();
+        cursor = sorter.cursor();
     }
 
     /**
@@ -82,10 +185,7 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        return cursor == null ? null : cursor.next();
     }
 
     @Override
@@ -99,25 +199,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
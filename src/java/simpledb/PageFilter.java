@@ -0,0 +1,380 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageFilter selects the slots of a {@link HeapPage} whose bytes satisfy a
+ * conjunction of predicates comparing int fields with ints.
+ * <p>
+ * compile() generates a class at run time whose select() is the whole loop
+ * over a page's slots. The page layout, the offset of every tested field,
+ * the operators and the operands are written into its bytecode as
+ * constants, so each row costs a header bit test and, per predicate, four
+ * byte loads and one comparison. select() is called once per page rather
+ * than once per tuple, so the call stays cheap when the classes of many
+ * queries have gone through it, and the JIT compiles every generated loop
+ * on its own.
+ * <p>
+ * The classes are written in the class file format of Java 5, which the
+ * JVM verifies without stack map frames, so no bytecode library is needed.
+ * They are cached by page layout and predicates, each in a class loader of
+ * its own so that it is unloaded once evicted. Generation can be turned off
+ * with -Dsimpledb.CompiledPredicates=false or setEnabled().
+ */
+public abstract class PageFilter {
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.CompiledPredicates", "true"));
+
+    /** @return true if scans of heap files use generated page filters */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns generated page filters on or off. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Most predicates compiled into one filter. */
+    static final int MAX_PREDICATES = 64;
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<String, PageFilter> cache =
+            new LinkedHashMap<String, PageFilter>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, PageFilter> e) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    protected PageFilter() {
+    }
+
+    /**
+     * Writes the used slots whose bytes satisfy every predicate to out, in
+     * slot order.
+     *
+     * @param header
+     *            the page's header bitmap
+     * @param data
+     *            the bytes the page was read from
+     * @param out
+     *            receives the selected slots; holds at least one entry per
+     *            slot of the page
+     * @return the number of slots written to out
+     */
+    public abstract int select(byte[] header, byte[] data, int[] out);
+
+    /**
+     * Returns a filter testing preds on the pages of page's table, or null
+     * if generation is off or a predicate does not compare an int field
+     * with an int.
+     */
+    static PageFilter compile(HeapPage page, Predicate[] preds) {
+        if (!enabled || preds.length == 0 || preds.length > MAX_PREDICATES)
+            return null;
+        TupleDesc td = page.td;
+        int[] fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        int[] offsets = new int[preds.length];
+        int[] values = new int[preds.length];
+        StringBuilder key = new StringBuilder();
+        key.append(page.getNumSlots()).append(',').append(page.header.length)
+                .append(',').append(td.getSize());
+        for (int k = 0; k < preds.length; k++) {
+            int f = preds[k].getField();
+            if (td.getFieldType(f) != Type.INT_TYPE || !(preds[k].getOperand() instanceof IntField))
+                return null;
+            offsets[k] = fieldOffsets[f];
+            values[k] = ((IntField) preds[k].getOperand()).getValue();
+            key.append(';').append(offsets[k]).append(preds[k].getOp()).append(values[k]);
+        }
+        String k = key.toString();
+        synchronized (cache) {
+            PageFilter filter = cache.get(k);
+            if (filter == null) {
+                filter = generate(page.getNumSlots(), page.header.length, td.getSize(),
+                        offsets, preds, values);
+                cache.put(k, filter);
+            }
+            return filter;
+        }
+    }
+
+    /** Defines each generated class, so that it can be unloaded on its own. */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(PageFilter.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    private static PageFilter generate(int numSlots, int headerSize, int tupleSize,
+            int[] offsets, Predicate[] preds, int[] values) {
+        String name = "simpledb.GeneratedPageFilter" + classes.incrementAndGet();
+        ClassFile cf = new ClassFile(name.replace('.', '/'));
+        byte[] b = cf.toBytes(selectCode(cf, numSlots, headerSize, tupleSize, offsets, preds, values));
+        try {
+            return (PageFilter) new Loader().define(name, b).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("could not load " + name, e);
+        }
+    }
+
+    // opcodes
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, ICONST_3 = 0x06;
+    private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+    private static final int ILOAD = 0x15, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d;
+    private static final int BALOAD = 0x33, ISTORE = 0x36, IASTORE = 0x4f;
+    private static final int IADD = 0x60, IMUL = 0x68, ISHL = 0x78, ISHR = 0x7a;
+    private static final int IAND = 0x7e, IOR = 0x80, IINC = 0x84;
+    private static final int IFEQ = 0x99, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7, IRETURN = 0xac;
+
+    // locals of select(): 1 header, 2 data, 3 out, then these
+    private static final int N = 4, SLOT = 5, OFF = 6;
+
+    /** @return the branch taken when "v op c" does not hold */
+    private static int failBranch(Predicate.Op op) {
+        switch (op) {
+        case EQUALS: case LIKE: return IF_ICMPNE;
+        case NOT_EQUALS: return IF_ICMPEQ;
+        case GREATER_THAN: return IF_ICMPLE;
+        case GREATER_THAN_OR_EQ: return IF_ICMPLT;
+        case LESS_THAN: return IF_ICMPGE;
+        case LESS_THAN_OR_EQ: return IF_ICMPGT;
+        default: throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /**
+     * The code of select(), that of:
+     *
+     * <pre>
+     * int n = 0;
+     * for (int slot = 0; slot &lt; NUM_SLOTS; slot++) {
+     *     if ((header[slot &gt;&gt; 3] &amp; 1 &lt;&lt; (slot &amp; 7)) == 0)
+     *         continue;
+     *     int off = slot * TUPLE_SIZE + HEADER_SIZE;
+     *     if (!(readInt(data, off + OFFSET_0) OP_0 VALUE_0))
+     *         continue;
+     *     ...
+     *     out[n++] = slot;
+     * }
+     * return n;
+     * </pre>
+     */
+    private static Code selectCode(ClassFile cf, int numSlots, int headerSize, int tupleSize,
+            int[] offsets, Predicate[] preds, int[] values) {
+        Code c = new Code();
+        c.op(ICONST_0).op(ISTORE).u1(N);
+        c.op(ICONST_0).op(ISTORE).u1(SLOT);
+        int loop = c.pos();
+        c.op(ILOAD).u1(SLOT).op(LDC_W).u2(cf.integer(numSlots));
+        int toEnd = c.branch(IF_ICMPGE);
+        ArrayList<Integer> toNext = new ArrayList<Integer>();
+        c.op(ALOAD_1).op(ILOAD).u1(SLOT).op(ICONST_3).op(ISHR).op(BALOAD);
+        c.op(ICONST_1).op(ILOAD).u1(SLOT).op(BIPUSH).u1(7).op(IAND).op(ISHL).op(IAND);
+        toNext.add(c.branch(IFEQ));
+        c.op(ILOAD).u1(SLOT).op(LDC_W).u2(cf.integer(tupleSize)).op(IMUL);
+        c.op(LDC_W).u2(cf.integer(headerSize)).op(IADD).op(ISTORE).u1(OFF);
+        for (int k = 0; k < preds.length; k++) {
+            // the int at off + offsets[k], as HeapPage.readInt() reads it
+            for (int b = 0; b < 4; b++) {
+                c.op(ALOAD_2).op(ILOAD).u1(OFF).op(LDC_W).u2(cf.integer(offsets[k] + b));
+                c.op(IADD).op(BALOAD);
+                if (b > 0)
+                    c.op(SIPUSH).u2(0xFF).op(IAND);
+                if (b < 3)
+                    c.op(BIPUSH).u1(24 - 8 * b).op(ISHL);
+                if (b > 0)
+                    c.op(IOR);
+            }
+            c.op(LDC_W).u2(cf.integer(values[k]));
+            toNext.add(c.branch(failBranch(preds[k].getOp())));
+        }
+        c.op(ALOAD_3).op(ILOAD).u1(N).op(ILOAD).u1(SLOT).op(IASTORE);
+        c.op(IINC).u1(N).u1(1);
+        int next = c.pos();
+        c.op(IINC).u1(SLOT).u1(1);
+        c.patch(c.branch(GOTO), loop);
+        int end = c.pos();
+        c.op(ILOAD).u1(N).op(IRETURN);
+        c.patch(toEnd, end);
+        for (int at : toNext)
+            c.patch(at, next);
+        return c;
+    }
+
+    /** The bytecode of a method being written. */
+    private static final class Code {
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        // branch position -> offset to its target
+        private final HashMap<Integer, Integer> patches = new HashMap<Integer, Integer>();
+
+        int pos() {
+            return buf.size();
+        }
+
+        Code op(int op) {
+            buf.write(op);
+            return this;
+        }
+
+        Code u1(int v) {
+            buf.write(v);
+            return this;
+        }
+
+        Code u2(int v) {
+            buf.write(v >> 8);
+            buf.write(v);
+            return this;
+        }
+
+        /** Writes a branch to be patched; @return its position */
+        int branch(int op) {
+            int at = pos();
+            op(op).u2(0);
+            return at;
+        }
+
+        /** Points the branch at position at to target. */
+        void patch(int at, int target) {
+            int offset = target - at;
+            if (offset != (short) offset)
+                throw new IllegalStateException("branch out of range");
+            patches.put(at, offset);
+        }
+
+        byte[] bytes() {
+            byte[] b = buf.toByteArray();
+            for (Map.Entry<Integer, Integer> e : patches.entrySet()) {
+                b[e.getKey() + 1] = (byte) (e.getValue() >> 8);
+                b[e.getKey() + 2] = (byte) (int) e.getValue();
+            }
+            return b;
+        }
+    }
+
+    /** A generated subclass of PageFilter with one constant pool. */
+    private static final class ClassFile {
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(pool);
+        private final HashMap<Integer, Integer> integers = new HashMap<Integer, Integer>();
+        private int entries;
+        private final int thisClass, superClass, code, init, voidDesc, superInit;
+        private final int select, selectDesc;
+
+        ClassFile(String name) {
+            thisClass = classRef(name);
+            superClass = classRef(PageFilter.class.getName().replace('.', '/'));
+            code = utf8("Code");
+            init = utf8("<init>");
+            voidDesc = utf8("()V");
+            superInit = entry(10, superClass, entry(12, init, voidDesc));
+            select = utf8("select");
+            selectDesc = utf8("([B[B[I)I");
+        }
+
+        private int utf8(String s) {
+            try {
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return ++entries;
+        }
+
+        private int classRef(String name) {
+            return entry(7, utf8(name));
+        }
+
+        private int entry(int tag, int... refs) {
+            try {
+                out.writeByte(tag);
+                for (int r : refs)
+                    out.writeShort(r);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return ++entries;
+        }
+
+        /** @return the index of the constant v in the pool */
+        int integer(int v) {
+            Integer i = integers.get(v);
+            if (i == null) {
+                try {
+                    out.writeByte(3);
+                    out.writeInt(v);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                i = ++entries;
+                integers.put(v, i);
+            }
+            return i;
+        }
+
+        byte[] toBytes(Code selectCode) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream d = new DataOutputStream(bytes);
+                d.writeInt(0xCAFEBABE);
+                d.writeShort(0);
+                d.writeShort(49);
+                d.writeShort(entries + 1);
+                d.write(pool.toByteArray());
+                d.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+                d.writeShort(thisClass);
+                d.writeShort(superClass);
+                d.writeShort(0); // interfaces
+                d.writeShort(0); // fields
+                d.writeShort(2);
+                // public <init>() { super(); }
+                method(d, init, voidDesc, 1, 1, new byte[] { 0x2a, (byte) 0xb7,
+                        (byte) (superInit >> 8), (byte) superInit, (byte) 0xb1 });
+                method(d, select, selectDesc, 6, OFF + 1, selectCode.bytes());
+                d.writeShort(0); // attributes
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void method(DataOutputStream d, int name, int desc, int maxStack, int maxLocals,
+                byte[] body) throws IOException {
+            d.writeShort(0x0001); // public
+            d.writeShort(name);
+            d.writeShort(desc);
+            d.writeShort(1);
+            d.writeShort(code);
+            d.writeInt(2 + 2 + 4 + body.length + 2 + 2);
+            d.writeShort(maxStack);
+            d.writeShort(maxLocals);
+            d.writeInt(body.length);
+            d.write(body);
+            d.writeShort(0); // exception table
+            d.writeShort(0); // attributes
+        }
+    }
+}
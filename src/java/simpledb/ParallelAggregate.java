@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelAggregate is an {@link Aggregate} over a scan of a heap file that
+ * reads the file on the threads of the common {@link ForkJoinPool}.
+ * <p>
+ * On open() the file's pages are split into parallelism contiguous ranges,
+ * each scanned by one task. Each task reads its pages through the buffer
+ * pool, applies the scan's predicates, and merges the matching rows into a
+ * partial {@link MultiAggregator} of its own. The partials are then merged, in page
+ * order, into the final aggregator: mins and maxes are folded, and sums and
+ * counts are added. For an AVG every partial keeps the SUM_COUNT pair of
+ * its rows, and the final aggregator takes the SC_AVG of the pairs, so the
+ * average is exact and only divided once.
+ * <p>
+ * Results and group order are those of a single-threaded Aggregate. Like
+ * {@link ParallelHashJoin}, the groups have no memory budget, so the
+ * planner only picks this operator when enabled with
+ * -Dsimpledb.ParallelAggregate=true or setEnabled().
+ */
+public class ParallelAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.ParallelAggregate", "false"));
+
+    /** @return true if the planner should use parallel aggregates */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns parallel aggregates in the planner on or off. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private final int parallelism;
+
+    // the scan
+    private final TransactionId tid;
+    private final int tableid;
+    private final Predicate[] preds;
+    private final TupleDesc scanTd;
+
+    /**
+     * Constructor. Splits the file in one range per available processor.
+     *
+     * @param child
+     *            a SeqScan of a heap file, under any number of Filters, or a
+     *            FusedScan that does not aggregate
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     */
+    public ParallelAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            a SeqScan of a heap file, under any number of Filters, or a
+     *            FusedScan that does not aggregate
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     * @param parallelism
+     *            the number of page ranges to scan as tasks on the common
+     *            pool; 1 runs on the calling thread
+     * @throws IllegalArgumentException if child is not such a scan
+     */
+    public ParallelAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int parallelism) {
+        super(child, afields, gfields, aops);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        if (!supports(child))
+            throw new IllegalArgumentException("ParallelAggregate needs a scan of a heap file");
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.parallelism = parallelism;
+        this.scanTd = child.getTupleDesc();
+
+        if (child instanceof FusedScan) {
+            FusedScan s = (FusedScan) child;
+            tid = s.getTransactionId();
+            tableid = s.getTableId();
+            preds = s.getPredicates();
+        } else {
+            SeqScan s = SeqScan.pushDown(child);
+            tid = s.getTransactionId();
+            tableid = s.getTableId();
+            preds = s.getPredicates();
+        }
+    }
+
+    /**
+     * @return true if plan is a scan a ParallelAggregate can read: Filters
+     *         over a SeqScan, or a FusedScan that does not aggregate, of a
+     *         heap file
+     */
+    public static boolean supports(OpIterator plan) {
+        int tableid;
+        if (plan instanceof FusedScan) {
+            FusedScan s = (FusedScan) plan;
+            if (s.aggregateField() >= 0)
+                return false;
+            tableid = s.getTableId();
+        } else {
+            while (plan instanceof Filter)
+                plan = ((Filter) plan).getChildren()[0];
+            if (!(plan instanceof SeqScan))
+                return false;
+            tableid = ((SeqScan) plan).getTableId();
+        }
+        return Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile;
+    }
+
+    /** @return the number of page ranges the scan is split into */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Aggregates every page range into a partial aggregator, in parallel,
+     * and merges the partials.
+     */
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        int numPages = file.numPages();
+        final int ranges = Math.max(1, Math.min(parallelism, numPages));
+        final int[] start = new int[ranges + 1];
+        for (int r = 0; r <= ranges; r++)
+            start[r] = (int) ((long) numPages * r / ranges);
+        final MultiAggregator[] partials = new MultiAggregator[ranges];
+        final Exception[] failures = new Exception[ranges];
+
+        if (ranges == 1) {
+            partials[0] = scan(start[0], start[1]);
+        } else {
+            final RecursiveAction[] tasks = new RecursiveAction[ranges];
+            for (int r = 0; r < ranges; r++) {
+                final int id = r;
+                tasks[r] = new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+
+                    protected void compute() {
+                        try {
+                            partials[id] = scan(start[id], start[id + 1]);
+                        } catch (DbException e) {
+                            failures[id] = e;
+                        } catch (TransactionAbortedException e) {
+                            failures[id] = e;
+                        }
+                    }
+                };
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            for (Exception e : failures) {
+                if (e instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) e;
+                if (e != null)
+                    throw (DbException) e;
+            }
+        }
+
+        MultiAggregator result = partials[0];
+        for (int r = 1; r < ranges; r++)
+            result.merge(partials[r]);
+        return result;
+    }
+
+    /** Aggregates the rows of pages [from, to) that satisfy every predicate. */
+    private MultiAggregator scan(int from, int to) throws DbException, TransactionAbortedException {
+        MultiAggregator partial = new MultiAggregator(scanTd, gfields, afields, aops);
+        int[] slots = null;
+        PageFilter filter = null;
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, tableid, pgNo, 0,
+                    Permissions.READ_ONLY);
+            if (slots == null) {
+                slots = new int[page.getNumSlots()];
+                filter = PageFilter.compile(page, preds);
+            }
+            int n = page.select(preds, filter, slots);
+            for (int i = 0; i < n; i++)
+                partial.mergeTupleIntoGroup(page.tuple(slots[i]));
+        }
+        return partial;
+    }
+}
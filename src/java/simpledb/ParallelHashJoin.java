@@ -0,0 +1,377 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelHashJoin is an equality {@link Join} that builds and probes its
+ * hash table on the threads of the common {@link ForkJoinPool}.
+ * <p>
+ * On open() all of child1 (the build side) is read into memory and split by
+ * the hash of its join key into partitions, each with its own
+ * {@link IntHashIndex} chaining the rows that share a key. The partitions
+ * are built in parallel and are never written to by more than one thread.
+ * child2 is then read in batches of {@link #BATCH_SIZE} tuples, and each
+ * batch is probed in parallel ranges.
+ * <p>
+ * Output order is the same as a single-threaded hash join: child2 order,
+ * and for every child2 tuple its matches in child1 order. Unlike
+ * {@link HybridHashJoin} the build side is not given a memory budget, so
+ * the planner only picks this operator when enabled with
+ * -Dsimpledb.ParallelJoin=true or setEnabled().
+ */
+public class ParallelHashJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.ParallelJoin", "false"));
+
+    /** @return true if the planner should use parallel hash joins */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns parallel hash joins in the planner on or off. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Number of child2 tuples probed together. */
+    public static final int BATCH_SIZE = 8192;
+
+    /** Smallest range of rows handed to a single task. */
+    private static final int GRAIN = 512;
+
+    private final int field1;
+    private final int field2;
+    private final boolean intKeys;
+    private final int parallelism;
+    private final int partitionBits;
+
+    private transient OpIterator probe;
+
+    // build side: row r is buildRows[r], with key hash keys[r]
+    private transient Tuple[] buildRows;
+    private transient int[] keys;
+    private transient int[] next;
+    private transient Partition[] partitions;
+
+    // the probed batch; chunk c holds the output of rows [c * GRAIN, ...)
+    private transient Tuple[] batch;
+    private transient ArrayList<Tuple>[] chunks;
+    private int chunk;
+    private int chunkPos;
+    private int numChunks;
+
+    /**
+     * Constructor. Splits the work in one part per available processor.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     * @param parallelism
+     *            the number of parts to split the build into, each run as
+     *            a task on the common pool; 1 runs on the calling thread
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int parallelism) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("ParallelHashJoin needs an EQUALS predicate");
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.field1 = p.getField1();
+        this.field2 = p.getField2();
+        this.intKeys = child1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE;
+        this.parallelism = parallelism;
+        // a few partitions per thread keeps them busy when keys are skewed
+        int bits = 0;
+        while ((1 << bits) < 4 * parallelism)
+            bits++;
+        this.partitionBits = bits;
+    }
+
+    /** @return the number of parts the join splits its work into */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /** @return the number of partitions the build side is split into */
+    public int getPartitions() {
+        return 1 << partitionBits;
+    }
+
+    /** One partition of the build side. */
+    private static final class Partition {
+        final IntHashIndex index;
+        /** head[i] is the first row whose key has index i, or -1 */
+        final int[] head;
+
+        Partition(int rows) {
+            index = new IntHashIndex(rows);
+            head = new int[rows];
+        }
+    }
+
+    private int partitionOf(int key) {
+        return partitionBits == 0 ? 0 : (key * 0x85EBCA6B) >>> (32 - partitionBits);
+    }
+
+    private int keyOf(Tuple t, int field) {
+        return intKeys ? t.getInt(field) : t.getField(field).hashCode();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        probe = children[1];
+        super.open();
+        buildTable(children[0]);
+        batch = new Tuple[BATCH_SIZE];
+        clearBatch();
+    }
+
+    public void close() {
+        super.close();
+        buildRows = null;
+        keys = null;
+        next = null;
+        partitions = null;
+        batch = null;
+        chunks = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the table over child1 is kept
+        probe.rewind();
+        clearBatch();
+    }
+
+    private void clearBatch() {
+        chunks = null;
+        numChunks = 0;
+        chunk = 0;
+        chunkPos = 0;
+    }
+
+    /** Runs task on the common pool, or on this thread if not parallel. */
+    private void run(RecursiveAction task) {
+        if (parallelism == 1)
+            task.invoke();
+        else
+            ForkJoinPool.commonPool().invoke(task);
+    }
+
+    /**
+     * Calls leaf() on ranges of at most GRAIN rows out of [lo, hi), forking
+     * unless the join runs on one thread.
+     */
+    private abstract class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final int lo, hi;
+
+        RangeTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        abstract RangeTask split(int lo, int hi);
+
+        abstract void leaf(int lo, int hi);
+
+        protected void compute() {
+            if (parallelism == 1 || hi - lo <= GRAIN) {
+                for (int i = lo; i < hi; i += GRAIN)
+                    leaf(i, Math.min(hi, i + GRAIN));
+                return;
+            }
+            int mid = lo + ((hi - lo) / 2 + GRAIN - 1) / GRAIN * GRAIN;
+            invokeAll(split(lo, mid), split(mid, hi));
+        }
+    }
+
+    /**
+     * Reads child1, then hashes, partitions and chains its rows in
+     * parallel.
+     */
+    private void buildTable(OpIterator build) throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        while (build.hasNext())
+            rows.add(build.next());
+        final int n = rows.size();
+        buildRows = rows.toArray(new Tuple[n]);
+        keys = new int[n];
+        next = new int[n];
+        final int[] part = new int[n];
+
+        class HashTask extends RangeTask {
+            private static final long serialVersionUID = 1L;
+
+            HashTask(int lo, int hi) {
+                super(lo, hi);
+            }
+
+            RangeTask split(int lo, int hi) {
+                return new HashTask(lo, hi);
+            }
+
+            void leaf(int lo, int hi) {
+                for (int r = lo; r < hi; r++) {
+                    keys[r] = keyOf(buildRows[r], field1);
+                    part[r] = partitionOf(keys[r]);
+                }
+            }
+        }
+        run(new HashTask(0, n));
+
+        // counting sort of the rows by partition, keeping child1 order
+        final int numPartitions = getPartitions();
+        final int[] start = new int[numPartitions + 1];
+        for (int r = 0; r < n; r++)
+            start[part[r] + 1]++;
+        for (int p = 0; p < numPartitions; p++)
+            start[p + 1] += start[p];
+        final int[] order = new int[n];
+        int[] fill = Arrays.copyOf(start, numPartitions);
+        for (int r = 0; r < n; r++)
+            order[fill[part[r]]++] = r;
+
+        partitions = new Partition[numPartitions];
+        if (parallelism == 1) {
+            for (int p = 0; p < numPartitions; p++)
+                partitions[p] = buildPartition(order, start[p], start[p + 1]);
+            return;
+        }
+        final RecursiveAction[] tasks = new RecursiveAction[numPartitions];
+        for (int p = 0; p < numPartitions; p++) {
+            final int id = p;
+            tasks[p] = new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                protected void compute() {
+                    partitions[id] = buildPartition(order, start[id], start[id + 1]);
+                }
+            };
+        }
+        run(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Chains the rows order[lo..hi) by key. Rows are linked back to front so
+     * that every chain lists its rows in child1 order.
+     */
+    private Partition buildPartition(int[] order, int lo, int hi) {
+        Partition p = new Partition(hi - lo);
+        Arrays.fill(p.head, -1);
+        for (int i = hi - 1; i >= lo; i--) {
+            int r = order[i];
+            int k = p.index.getOrAdd(keys[r]);
+            next[r] = p.head[k];
+            p.head[k] = r;
+        }
+        return p;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (chunk < numChunks) {
+                if (chunkPos < chunks[chunk].size())
+                    return chunks[chunk].get(chunkPos++);
+                chunks[chunk] = null;
+                chunk++;
+                chunkPos = 0;
+            }
+            if (!probeBatch())
+                return null;
+        }
+    }
+
+    /**
+     * Reads the next batch of child2 and joins it in parallel.
+     *
+     * @return false if child2 is exhausted
+     */
+    private boolean probeBatch() throws DbException, TransactionAbortedException {
+        int m = 0;
+        while (m < BATCH_SIZE && probe.hasNext())
+            batch[m++] = probe.next();
+        if (m == 0)
+            return false;
+        numChunks = (m + GRAIN - 1) / GRAIN;
+        chunks = newChunks(numChunks);
+        chunk = 0;
+        chunkPos = 0;
+        final TupleDesc td = getTupleDesc();
+
+        class ProbeTask extends RangeTask {
+            private static final long serialVersionUID = 1L;
+
+            ProbeTask(int lo, int hi) {
+                super(lo, hi);
+            }
+
+            RangeTask split(int lo, int hi) {
+                return new ProbeTask(lo, hi);
+            }
+
+            void leaf(int lo, int hi) {
+                ArrayList<Tuple> out = new ArrayList<Tuple>();
+                for (int i = lo; i < hi; i++) {
+                    Tuple t2 = batch[i];
+                    int key = keyOf(t2, field2);
+                    Partition p = partitions[partitionOf(key)];
+                    int k = p.index.get(key);
+                    if (k < 0)
+                        continue;
+                    Field f2 = intKeys ? null : t2.getField(field2);
+                    for (int r = p.head[k]; r >= 0; r = next[r]) {
+                        // string keys share chains when their hashes collide
+                        if (intKeys || buildRows[r].getField(field1).equals(f2))
+                            out.add(new JoinedTuple(td, buildRows[r], t2));
+                    }
+                }
+                chunks[lo / GRAIN] = out;
+            }
+        }
+        run(new ProbeTask(0, m));
+        Arrays.fill(batch, 0, m, null);
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static ArrayList<Tuple>[] newChunks(int n) {
+        return new ArrayList[n];
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.util.BitSet;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -59,11 +60,16 @@ public class Predicate implements Serializable {
     private final int field;
     private final Op op;
     private final Field operand;
+    // operand unboxed once, so filtering int fields needs no Field objects
+    private final boolean intOperand;
+    private final int intValue;
     public Predicate(int field, Op op, Field operand) {
         // some code goes here
         this.field = field;
         this.op = op;
         this.operand = operand;
+        this.intOperand = operand instanceof IntField;
+        this.intValue = intOperand ? ((IntField) operand).getValue() : 0;
     }
 
     /**
@@ -105,9 +111,25 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (intOperand)
+            return IntField.compare(t.getInt(this.field), this.op, this.intValue);
         return t.getField(this.field).compare(this.op, this.operand);
     }
 
+    /**
+     * Applies this predicate to every row of an encoded column without
+     * decoding it. The column is assumed to hold the values of the field
+     * number specified in the constructor.
+     *
+     * @param column
+     *            The encoded column to evaluate against
+     * @return a BitSet with bit i set iff row i satisfies the predicate
+     * @see EncodedColumn#filter
+     */
+    public BitSet filter(EncodedColumn column) {
+        return column.filter(this.op, this.operand);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
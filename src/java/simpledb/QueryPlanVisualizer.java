@@ -65,10 +65,17 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof FusedScan) {
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                FusedScan s = (FusedScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
@@ -76,6 +83,11 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (queryPlan instanceof FusedScan)
+                thisNode.text += fusedText((FusedScan) queryPlan);
+            else
+                thisNode.text += predicateText(((SeqScan) queryPlan).getTableId(),
+                        ((SeqScan) queryPlan).getPredicates());
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -170,16 +182,28 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                int ngroups = a.groupFields().length;
+                Aggregator.Op[] ops = a.aggregateOps();
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                StringBuilder aggs = new StringBuilder();
+                for (int i = 0; i < ops.length; i++) {
+                    if (i > 0)
+                        aggs.append(", ");
+                    aggs.append(ops[i]).append('(').append(td.getFieldName(ngroups + i)).append(')');
+                }
+                if (ngroups == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    StringBuilder groups = new StringBuilder();
+                    for (int i = 0; i < ngroups; i++) {
+                        if (i > 0)
+                            groups.append(", ");
+                        groups.append(td.getFieldName(i));
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -334,6 +358,29 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /** The predicates a scan of tableId tests, appended to its scan text */
+    private static String predicateText(int tableId, Predicate[] preds) {
+        StringBuilder sb = new StringBuilder();
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        for (Predicate p : preds)
+            sb.append("+").append(SELECT).append("(").append(td.getFieldName(p.getField()))
+                    .append(p.getOp()).append(p.getOperand()).append(")");
+        return sb.toString();
+    }
+
+    /** The filters and aggregate a FusedScan runs, appended to its scan text */
+    private static String fusedText(FusedScan s) {
+        StringBuilder sb = new StringBuilder(predicateText(s.getTableId(), s.getPredicates()));
+        TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+        if (s.aggregateField() >= 0) {
+            sb.append("+");
+            if (s.groupField() != Aggregator.NO_GROUPING)
+                sb.append(GROUPBY).append("(").append(td.getFieldName(s.groupField())).append("), ");
+            sb.append(s.aggregateOp()).append("(").append(td.getFieldName(s.aggregateField())).append(")");
+        }
+        return sb.toString();
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
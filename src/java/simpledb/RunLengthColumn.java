@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Run-length encoding for sorted (or otherwise clustered) columns of any
+ * type. Consecutive equal values are collapsed into a single run, and a
+ * predicate is evaluated once per run instead of once per row.
+ */
+public class RunLengthColumn implements EncodedColumn {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Type type;
+    private final Field[] runValues;
+    /** runEnds[r] is the row number one past the last row of run r */
+    private final int[] runEnds;
+
+    /**
+     * Builds a run-length-encoded column from the given values.
+     *
+     * @param type the type of the column
+     * @param values the fields of the column, in row order
+     */
+    public RunLengthColumn(Type type, List<Field> values) {
+        this.type = type;
+        ArrayList<Field> vals = new ArrayList<Field>();
+        ArrayList<Integer> ends = new ArrayList<Integer>();
+        for (int i = 0; i < values.size(); i++) {
+            Field f = values.get(i);
+            if (vals.isEmpty() || !vals.get(vals.size() - 1).equals(f)) {
+                vals.add(f);
+                ends.add(i + 1);
+            } else {
+                ends.set(ends.size() - 1, i + 1);
+            }
+        }
+        runValues = vals.toArray(new Field[0]);
+        runEnds = new int[ends.size()];
+        for (int i = 0; i < runEnds.length; i++)
+            runEnds[i] = ends.get(i);
+    }
+
+    /**
+     * @return the number of runs in the column
+     */
+    public int numRuns() {
+        return runValues.length;
+    }
+
+    public int size() {
+        return runEnds.length == 0 ? 0 : runEnds[runEnds.length - 1];
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Field get(int row) {
+        if (row < 0 || row >= size())
+            throw new NoSuchElementException("row " + row + " out of range");
+        int r = Arrays.binarySearch(runEnds, row + 1);
+        if (r < 0)
+            r = -r - 1;
+        return runValues[r];
+    }
+
+    public BitSet filter(Predicate.Op op, Field operand) {
+        BitSet res = new BitSet(size());
+        int start = 0;
+        for (int r = 0; r < runValues.length; r++) {
+            if (runValues[r].compare(op, operand))
+                res.set(start, runEnds[r]);
+            start = runEnds[r];
+        }
+        return res;
+    }
+}
@@ -9,6 +9,11 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be given predicates, pushed down from the Filters above it by
+ * {@link #pushDown}, and then returns only the tuples satisfying all of
+ * them. Over a {@link HeapFile} they are tested by each page on its bytes,
+ * so the tuples that fail are never built.
  */
 public class SeqScan implements OpIterator {
 
@@ -35,13 +40,63 @@ public class SeqScan implements OpIterator {
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private final Predicate[] preds;
+    // the table's TupleDesc with every name prefixed by tableAlias
+    private TupleDesc td;
     private DbFileIterator it;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, new Predicate[0]);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying every
+     * predicate.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param preds
+     *            the predicates, tested in order
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] preds) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.preds = preds.clone();
+        this.td = prefixedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+    }
+
+    /**
+     * Replaces a plan made of Filters over a SeqScan with one SeqScan testing
+     * all of their predicates.
+     *
+     * @param plan
+     *            the Filter/SeqScan chain
+     * @return the SeqScan, or null if plan has another shape
+     */
+    public static SeqScan pushDown(OpIterator plan) {
+        ArrayList<Predicate> p = new ArrayList<Predicate>();
+        while (plan instanceof Filter) {
+            p.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (!(plan instanceof SeqScan))
+            return null;
+        SeqScan s = (SeqScan) plan;
+        // Filters are built bottom up, so the innermost one is tested first
+        Collections.reverse(p);
+        p.addAll(0, Arrays.asList(s.preds));
+        return new SeqScan(s.tid, s.tableid, s.tableAlias, p.toArray(new Predicate[0]));
+    }
+
+    /** @return the predicates every returned tuple satisfies */
+    public Predicate[] getPredicates() {
+        return preds.clone();
     }
 
     /**
@@ -54,6 +109,18 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -79,6 +146,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.td = prefixedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -87,7 +155,13 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // open()：使用DbFileIterator打开table。
-        it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (preds.length == 0)
+            it = f.iterator(tid);
+        else if (f instanceof HeapFile)
+            it = ((HeapFile) f).iterator(tid, preds);
+        else
+            it = new FilteredIterator(f.iterator(tid), preds);
         it.open();
     }
 
@@ -103,7 +177,20 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // getTupleDesc()：返回table 的TupleDesc类型。
-        return Database.getCatalog().getTupleDesc(tableid);
+        return td;
+    }
+
+    /**
+     * @return td with every field name prefixed by alias and a "."
+     */
+    static TupleDesc prefixedTupleDesc(TupleDesc td, String alias) {
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -135,4 +222,53 @@ public class SeqScan implements OpIterator {
         // some code goes here
         it.rewind();
     }
+
+    /** Returns the tuples of a file iterator that satisfy every predicate. */
+    private static final class FilteredIterator implements DbFileIterator {
+        private final DbFileIterator child;
+        private final Predicate[] preds;
+        private Tuple next;
+
+        FilteredIterator(DbFileIterator child, Predicate[] preds) {
+            this.child = child;
+            this.preds = preds;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            outer:
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                for (Predicate p : preds) {
+                    if (!p.filter(t))
+                        continue outer;
+                }
+                next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            next = null;
+        }
+
+        public void close() {
+            child.close();
+            next = null;
+        }
+    }
 }
@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin is an equality {@link Join} over inputs sorted on their join
+ * fields. It reads both inputs once, in step, buffering only the child2
+ * tuples that share the current key so that duplicate keys on both sides
+ * produce their full cross product.
+ * <p>
+ * An input that {@link #isSortedOn} does not recognize as sorted on its join
+ * field, such as a scan of a heap file, is first sorted with an
+ * {@link ExternalSorter}. Scans of a {@link BTreeFile} keyed on the join
+ * field, OrderBy on it and other SortMergeJoins on it are read as they are.
+ * <p>
+ * Output rows are in ascending order of the join key.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of pages of tuples an unsorted input may hold in memory when no
+     * budget is given, as for {@link BlockNestedLoopJoin#DEFAULT_BLOCK_PAGES}.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES / 2;
+
+    private final int memoryTuples;
+    private final int field1;
+    private final int field2;
+    private final boolean intKeys;
+
+    private transient Input left;
+    private transient Input right;
+    private transient ExternalSorter sorter1;
+    private transient ExternalSorter sorter2;
+    private transient ExternalSorter.Cursor cursor1;
+    private transient ExternalSorter.Cursor cursor2;
+
+    private transient Tuple current;
+    private transient Tuple rightNext;
+    private transient ArrayList<Tuple> group;
+    private int groupPos;
+
+    /**
+     * Constructor. Unsorted inputs are sorted in
+     * {@link #DEFAULT_MEMORY_PAGES} pages of memory.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, BlockNestedLoopJoin.blockTuples(
+                TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc()), DEFAULT_MEMORY_PAGES));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The EQUALS predicate to use to join the children
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param memoryTuples
+     *            the maximum number of tuples of an unsorted input held in
+     *            memory while sorting it
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("SortMergeJoin needs an EQUALS predicate");
+        if (memoryTuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryTuples);
+        this.memoryTuples = memoryTuples;
+        this.field1 = p.getField1();
+        this.field2 = p.getField2();
+        this.intKeys = child1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE;
+    }
+
+    /**
+     * Returns true if plan is known to return its tuples in ascending order
+     * of the given field.
+     */
+    public static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof Filter)
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        if (plan instanceof SeqScan)
+            return isIndexKey(((SeqScan) plan).getTableName(), field);
+        if (plan instanceof BTreeScan)
+            return isIndexKey(((BTreeScan) plan).getTableName(), field);
+        if (plan instanceof OrderBy)
+            return ((OrderBy) plan).isASC() && ((OrderBy) plan).getOrderByField() == field;
+        if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            int width1 = j.getChildren()[0].getTupleDesc().numFields();
+            return field == j.field1 || field == width1 + j.field2;
+        }
+        return false;
+    }
+
+    private static boolean isIndexKey(String tableName, int field) {
+        Catalog catalog = Database.getCatalog();
+        DbFile f = catalog.getDatabaseFile(catalog.getTableId(tableName));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /** @return the maximum number of tuples held in memory per sorted input */
+    public int getMemoryTuples() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of runs written to disk while sorting the inputs on
+     *         the last open() or rewind(), or 0 if no input was sorted or the
+     *         inputs fit in memory
+     */
+    public int getSpilledRuns() {
+        return (sorter1 == null ? 0 : sorter1.numRuns()) + (sorter2 == null ? 0 : sorter2.numRuns());
+    }
+
+    /** Reads an input in join key order. */
+    private interface Input {
+        /** @return the next tuple, or null if there are no more */
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    private static Input childInput(final OpIterator child) {
+        return new Input() {
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.hasNext() ? child.next() : null;
+            }
+        };
+    }
+
+    private static Input sortedInput(final ExternalSorter.Cursor c) {
+        return new Input() {
+            public Tuple next() throws DbException {
+                return c.next();
+            }
+        };
+    }
+
+    private ExternalSorter sort(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ExternalSorter s = new ExternalSorter(child.getTupleDesc(),
+                new TupleComparator(field, true), memoryTuples);
+        while (child.hasNext())
+            s.add(child.next());
+        return s;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        deleteSorters();
+        left = null;
+        right = null;
+        current = null;
+        rightNext = null;
+        group = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // sorted copies are read again, only the other inputs are rewound
+        OpIterator[] children = getChildren();
+        Input in1, in2;
+        if (sorter1 != null) {
+            in1 = sortedInput(cursor1 = reopen(cursor1, sorter1));
+        } else {
+            children[0].rewind();
+            in1 = childInput(children[0]);
+        }
+        if (sorter2 != null) {
+            in2 = sortedInput(cursor2 = reopen(cursor2, sorter2));
+        } else {
+            children[1].rewind();
+            in2 = childInput(children[1]);
+        }
+        startMerge(in1, in2);
+    }
+
+    private static ExternalSorter.Cursor reopen(ExternalSorter.Cursor old, ExternalSorter s)
+            throws DbException {
+        if (old != null)
+            old.close();
+        return s.cursor();
+    }
+
+    private void deleteSorters() {
+        if (cursor1 != null)
+            cursor1.close();
+        if (cursor2 != null)
+            cursor2.close();
+        cursor1 = null;
+        cursor2 = null;
+        if (sorter1 != null)
+            sorter1.delete();
+        if (sorter2 != null)
+            sorter2.delete();
+        sorter1 = null;
+        sorter2 = null;
+    }
+
+    /** Sorts the inputs that need it and starts merging. */
+    private void start() throws DbException, TransactionAbortedException {
+        deleteSorters();
+        OpIterator[] children = getChildren();
+        Input in1, in2;
+        if (isSortedOn(children[0], field1)) {
+            in1 = childInput(children[0]);
+        } else {
+            sorter1 = sort(children[0], field1);
+            in1 = sortedInput(cursor1 = reopen(cursor1, sorter1));
+        }
+        if (isSortedOn(children[1], field2)) {
+            in2 = childInput(children[1]);
+        } else {
+            sorter2 = sort(children[1], field2);
+            in2 = sortedInput(cursor2 = reopen(cursor2, sorter2));
+        }
+        startMerge(in1, in2);
+    }
+
+    private void startMerge(Input in1, Input in2) throws DbException, TransactionAbortedException {
+        left = in1;
+        right = in2;
+        current = null;
+        group = new ArrayList<Tuple>();
+        groupPos = 0;
+        rightNext = right.next();
+    }
+
+    /** Compares the join key of a child1 tuple to that of a child2 tuple. */
+    private int compareKeys(Tuple t1, Tuple t2) {
+        if (intKeys)
+            return Integer.compare(t1.getInt(field1), t2.getInt(field2));
+        return t1.getString(field1).compareTo(t2.getString(field2));
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        TupleDesc td = getTupleDesc();
+        while (true) {
+            if (current != null && groupPos < group.size())
+                return new JoinedTuple(td, current, group.get(groupPos++));
+            current = left.next();
+            if (current == null)
+                return null;
+            groupPos = 0;
+            // a run of equal child1 keys reuses the group
+            if (!group.isEmpty() && compareKeys(current, group.get(0)) == 0)
+                continue;
+            group.clear();
+            while (rightNext != null && compareKeys(current, rightNext) > 0)
+                rightNext = right.next();
+            if (rightNext == null) {
+                // nothing left in child2 can match
+                current = null;
+                return null;
+            }
+            while (rightNext != null && compareKeys(current, rightNext) == 0) {
+                group.add(rightNext);
+                rightNext = right.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillingAggregator is a {@link MultiAggregator} with a budget on the
+ * number of groups held in memory.
+ * <p>
+ * Tuples are aggregated in memory until the table holds maxGroups groups.
+ * After that, tuples of groups already in the table are still aggregated
+ * in place, and tuples of any other group are written, unaggregated, to
+ * one of {@link #PARTITIONS} {@link TupleSpillFile}s chosen by the hash of
+ * their group key. iterator() returns the groups in memory first, then
+ * aggregates each partition in turn with a new SpillingAggregator of the
+ * same budget. A partition that still has too many groups spills again,
+ * split on other bits of the hash, up to {@link #MAX_DEPTH} levels deep.
+ * Below that it is aggregated in memory whatever its size.
+ * <p>
+ * Results are the same as MultiAggregator's, but groups of spilled
+ * partitions come after the groups that stayed in memory. While a partition
+ * is being returned, the tables of the levels above it are kept for
+ * rewind(), so memory holds at most one table per level. Tuples may not be
+ * merged once iterator() has been called, and delete() removes the spill
+ * files.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the groups over budget are split into. */
+    public static final int PARTITIONS = 16;
+
+    private static final int PARTITION_BITS = 4;
+
+    /** Number of times a partition may be split again. */
+    public static final int MAX_DEPTH = 32 / PARTITION_BITS - 1;
+
+    /** Spill counts, shared by an aggregator and those of its partitions. */
+    private static final class Metrics {
+        int partitions;
+        long tuples;
+        long bytes;
+        int depth;
+    }
+
+    private final TupleDesc childTd;
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] whats;
+    private final int maxGroups;
+    private final int depth;
+    private final Metrics metrics;
+
+    private MultiAggregator table;
+    private TupleSpillFile[] partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param childTd
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields; empty if there
+     *            is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregated fields
+     * @param whats
+     *            the aggregation operator for each of afields
+     * @param maxGroups
+     *            the maximum number of groups held in memory
+     */
+    public SpillingAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] whats,
+            int maxGroups) {
+        this(childTd, gbfields, afields, whats, maxGroups, 0, new Metrics());
+    }
+
+    private SpillingAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] whats,
+            int maxGroups, int depth, Metrics metrics) {
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("memory budget must be positive: " + maxGroups);
+        this.table = new MultiAggregator(childTd, gbfields, afields, whats);
+        this.childTd = childTd;
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.maxGroups = maxGroups;
+        this.depth = depth;
+        this.metrics = metrics;
+        metrics.depth = Math.max(metrics.depth, depth);
+    }
+
+    /** @return the maximum number of groups held in memory */
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * @return the number of partitions written to disk, at every level of
+     *         recursion, including partitions rewritten by a rewind of the
+     *         iterator
+     */
+    public int getSpilledPartitions() {
+        return metrics.partitions;
+    }
+
+    /** @return the number of tuples written to disk, counted as above */
+    public long getSpilledTuples() {
+        return metrics.tuples;
+    }
+
+    /** @return the number of bytes written to disk, counted as above */
+    public long getSpilledBytes() {
+        return metrics.bytes;
+    }
+
+    /**
+     * @return how many times a partition had to be split again, 0 if no
+     *         spilled partition went over budget
+     */
+    public int getRecursionDepth() {
+        return Math.max(0, metrics.depth - 1);
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, or write it to its partition if
+     * its group is not in memory and the budget is used up
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (table.mergeTupleIntoGroup(tup, depth < MAX_DEPTH ? maxGroups : Integer.MAX_VALUE))
+            return;
+        if (partitions == null)
+            partitions = new TupleSpillFile[PARTITIONS];
+        int p = partitionOf(tup);
+        try {
+            if (partitions[p] == null) {
+                partitions[p] = new TupleSpillFile(childTd);
+                metrics.partitions++;
+            }
+            partitions[p].add(tup);
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate input: " + e.getMessage(), e);
+        }
+        metrics.tuples++;
+        metrics.bytes += childTd.getSize();
+    }
+
+    /** Picks a partition from the bits of the key hash that belong to this level. */
+    private int partitionOf(Tuple tup) {
+        int h = 1;
+        for (int f : gbfields) {
+            if (childTd.getFieldType(f) == Type.INT_TYPE)
+                h = 31 * h + tup.getInt(f);
+            else
+                h = 31 * h + tup.getField(f).hashCode();
+        }
+        h *= 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (depth + 1))) & (PARTITIONS - 1);
+    }
+
+    /** Removes the spill files of this aggregator. */
+    public void delete() {
+        if (partitions == null)
+            return;
+        for (TupleSpillFile f : partitions) {
+            if (f != null)
+                f.delete();
+        }
+        partitions = null;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group fields followed by the
+     *         aggregates
+     */
+    public OpIterator iterator() {
+        return new SpillIterator();
+    }
+
+    /** Returns the groups in memory, then those of every partition. */
+    private class SpillIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator current;
+        private SpillingAggregator sub;
+        private int nextPartition;
+
+        public void open() throws DbException, TransactionAbortedException {
+            current = table.iterator();
+            current.open();
+            nextPartition = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (current == null)
+                throw new IllegalStateException("iterator is closed");
+            while (!current.hasNext()) {
+                if (!nextPartition())
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Aggregates the next spilled partition.
+         *
+         * @return false if there are no more partitions
+         */
+        private boolean nextPartition() throws DbException, TransactionAbortedException {
+            closeSub();
+            while (partitions != null && nextPartition < PARTITIONS
+                    && partitions[nextPartition] == null)
+                nextPartition++;
+            if (partitions == null || nextPartition == PARTITIONS)
+                return false;
+            sub = new SpillingAggregator(childTd, gbfields, afields, whats, maxGroups,
+                    depth + 1, metrics);
+            try {
+                TupleSpillFile.Reader r = partitions[nextPartition++].reader();
+                Tuple t;
+                while ((t = r.next()) != null)
+                    sub.mergeTupleIntoGroup(t);
+            } catch (IOException e) {
+                throw new DbException("could not read spilled aggregate input: " + e.getMessage());
+            }
+            current = sub.iterator();
+            current.open();
+            return true;
+        }
+
+        private void closeSub() {
+            current.close();
+            if (sub != null)
+                sub.delete();
+            sub = null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return current.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return table.getTupleDesc();
+        }
+
+        public void close() {
+            if (current != null)
+                closeSub();
+            current = null;
+        }
+    }
+}
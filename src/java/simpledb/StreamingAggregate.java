@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * StreamingAggregate is an {@link Aggregate} over an input whose tuples
+ * arrive grouped on the group field, for instance sorted by an OrderBy or
+ * read in key order from a {@link BTreeFile}.
+ * <p>
+ * Nothing is hashed and no group is kept once it is complete: the input is
+ * read one group at a time, and each group's aggregates are returned as
+ * soon as a tuple with another key, or the end of the input, is read. So
+ * memory does not grow with the number of groups, and the first group is
+ * returned without reading the whole input.
+ * <p>
+ * Output tuples are those of {@link MultiAggregator}, in input order. If
+ * the input is not grouped, a key that comes back after another one is
+ * returned as a separate group; {@link #isGroupedOn} tells when the planner
+ * can rely on the input.
+ */
+public class StreamingAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] afields;
+    private final int gfield;
+    private final Aggregator.Op[] aops;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples, grouped on gfield
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfield
+     *            The column over which we are grouping the result
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     */
+    public StreamingAggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        super(child, afields, new int[]{gfield}, aops);
+        this.afields = afields.clone();
+        this.gfield = gfield;
+        this.aops = aops.clone();
+    }
+
+    /**
+     * Returns true if plan is known to return the tuples that share a value
+     * of the given field next to each other: if it is sorted on the field,
+     * in either direction.
+     */
+    public static boolean isGroupedOn(OpIterator plan, int field) {
+        if (plan instanceof Filter)
+            return isGroupedOn(((Filter) plan).getChildren()[0], field);
+        if (plan instanceof OrderBy)
+            return ((OrderBy) plan).getOrderByField() == field;
+        return SortMergeJoin.isSortedOn(plan, field);
+    }
+
+    protected OpIterator results() throws DbException, TransactionAbortedException {
+        return new GroupIterator(getChildren()[0]);
+    }
+
+    /** Aggregates the child's tuples a group at a time. */
+    private class GroupIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator child;
+        private final TupleDesc td;
+        private final boolean intKey;
+        private final long[] acc;
+
+        // the first tuple of the next group, or null at the end
+        private Tuple pending;
+
+        GroupIterator(OpIterator child) {
+            this.child = child;
+            this.td = StreamingAggregate.this.getTupleDesc();
+            this.intKey = td.getFieldType(0) == Type.INT_TYPE;
+            this.acc = new long[afields.length];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            pending = child.hasNext() ? child.next() : null;
+        }
+
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (pending == null)
+                throw new NoSuchElementException();
+            // keep the key rather than the tuple, which the child may reuse
+            int intValue = intKey ? pending.getInt(gfield) : 0;
+            Field key = intKey ? null : pending.getField(gfield);
+            for (int a = 0; a < acc.length; a++)
+                acc[a] = aops[a] == Aggregator.Op.MIN ? Long.MAX_VALUE
+                        : aops[a] == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+            long count = 0;
+            Tuple t = pending;
+            do {
+                count++;
+                for (int a = 0; a < acc.length; a++) {
+                    switch (aops[a]) {
+                    case MIN: {
+                        int v = t.getInt(afields[a]);
+                        if (v < acc[a]) acc[a] = v;
+                        break;
+                    }
+                    case MAX: {
+                        int v = t.getInt(afields[a]);
+                        if (v > acc[a]) acc[a] = v;
+                        break;
+                    }
+                    case COUNT:
+                        break;
+                    default: // SUM, AVG
+                        acc[a] += t.getInt(afields[a]);
+                        break;
+                    }
+                }
+                t = child.hasNext() ? child.next() : null;
+            } while (t != null && (intKey ? t.getInt(gfield) == intValue
+                    : t.getField(gfield).equals(key)));
+            pending = t;
+
+            Tuple out = intKey ? new IntTuple(td) : new Tuple(td);
+            if (intKey)
+                out.setInt(0, intValue);
+            else
+                out.setField(0, key);
+            for (int a = 0; a < acc.length; a++) {
+                long v;
+                switch (aops[a]) {
+                case COUNT:
+                    v = count;
+                    break;
+                case AVG:
+                    v = acc[a] / count;
+                    break;
+                default:
+                    v = acc[a];
+                    break;
+                }
+                out.setInt(1 + a, (int) v);
+            }
+            return out;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            pending = child.hasNext() ? child.next() : null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            child.close();
+            pending = null;
+        }
+    }
+}
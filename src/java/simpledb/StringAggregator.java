@@ -43,7 +43,6 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         Field hash_gbfield = tup.getField(gbfield);
-        Field hash_afield = tup.getField(afield);
         /*if(hash_afield.getType() != Type.STRING_TYPE){
             Field teemp = hash_afield;
             hash_afield = hash_gbfield;
@@ -68,12 +67,12 @@ public class StringAggregator implements Aggregator {
                 Integer newItem = 1;
                 res.put(hash_gbfield, newItem);
             } else {
-                Integer newItem = ((IntField)hash_afield).getValue()/**/;
+                Integer newItem = tup.getInt(afield);
                 res.put(hash_gbfield, newItem);
             }
         } else{
             Integer newItem = res.get(hash_gbfield);
-            newItem += what == Op.COUNT ? 1 : ((IntField)hash_afield).getValue()/**/;
+            newItem += what == Op.COUNT ? 1 : tup.getInt(afield);
             res.put(hash_gbfield, newItem);
         }
     }
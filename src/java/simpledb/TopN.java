@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of the child in the order an {@link OrderBy} on the same
+ * fields would return them, ties included.
+ * <p>
+ * Only n tuples are ever held: the child is read once into a bounded heap
+ * whose root is the last of the n best tuples so far, and a tuple that does
+ * not come before the root is dropped without being kept. So an input of
+ * any size is sorted in O(n) memory, without spilling, in
+ * O(input * log n) comparisons, which are made on the normalized prefix
+ * of each tuple's sort key (see {@link TupleComparator}).
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+    private transient Tuple[] sorted;
+    private transient int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return
+     */
+    public TopN(int orderbyField, boolean asc, OpIterator child, int limit) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit);
+    }
+
+    /**
+     * Creates a new TopN node that sorts on several fields: tuples equal on
+     * one are ordered by the next.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, major first.
+     * @param asc
+     *            for each field, true if its order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, OpIterator child, int limit) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("one direction is needed for each of 1 or more fields");
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.child = child;
+        this.limit = limit;
+    }
+
+    /** @return true if the order on the first sort field is ascending */
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    /** @return the first sort field, the one the output is sorted on */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    /** @return the sort fields, major first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return the number of tuples returned, at most */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * A child tuple, the prefix of its sort key and its position in the
+     * input, which breaks ties.
+     */
+    private static class Entry {
+        final long key;
+        final Tuple t;
+        final long seq;
+
+        Entry(long key, Tuple t, long seq) {
+            this.key = key;
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator order = new TupleComparator(orderByFields, asc);
+        final boolean prefixIsKey = order.prefixIsKey(getTupleDesc());
+        // the last tuple of the output at the root, so it is the one replaced
+        Comparator<Entry> last = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = order.compare(b.key, b.t, a.key, a.t, prefixIsKey);
+                return c != 0 ? c : Long.compare(b.seq, a.seq);
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(limit, 1024)), last);
+        long seq = 0;
+        if (limit > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                long key = order.prefix(t);
+                if (heap.size() < limit) {
+                    heap.add(new Entry(key, t, seq));
+                } else {
+                    Entry root = heap.peek();
+                    // a tie with the root came later in the input, so it stays out
+                    if (order.compare(key, t, root.key, root.t, prefixIsKey) < 0) {
+                        heap.poll();
+                        heap.add(new Entry(key, t, seq));
+                    }
+                }
+                seq++;
+            }
+        }
+        sorted = new Tuple[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = heap.poll().t;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        sorted = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the n first tuples of the
+     * child in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return sorted == null || pos >= sorted.length ? null : sorted[pos++];
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
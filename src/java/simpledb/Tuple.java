@@ -39,6 +39,15 @@ public class Tuple implements Serializable {
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Creates a tuple that keeps its fields in the given array, which may be
+     * null if a subclass stores every field itself.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        tupleDesc = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -95,6 +104,40 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Returns the value of an INT_TYPE field without going through a Field
+     * object where the representation allows it; see {@link IntTuple}.
+     *
+     * @param i
+     *            index of an INT_TYPE field. Must be a valid index.
+     * @return the value of the ith field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Sets the value of an INT_TYPE field.
+     *
+     * @param i
+     *            index of an INT_TYPE field. Must be a valid index.
+     * @param v
+     *            new value for the field.
+     */
+    public void setInt(int i, int v) {
+        setField(i, new IntField(v));
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     *
+     * @param i
+     *            index of a STRING_TYPE field. Must be a valid index.
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -108,9 +151,9 @@ public class Tuple implements Serializable {
         //throw new UnsupportedOperationException("Implement this");
         StringBuilder tmp = new StringBuilder();
         for(int i = 0; i < tupleDesc.numFields() - 1; i ++){
-            tmp.append(fields[i].toString()+" ");
+            tmp.append(getField(i).toString()+" ");
         }
-        tmp.append(fields[tupleDesc.numFields() - 1].toString() + "\n");
+        tmp.append(getField(tupleDesc.numFields() - 1).toString() + "\n");
         return tmp.toString();
     }
 
@@ -122,7 +165,10 @@ public class Tuple implements Serializable {
     {
         // some code goes here
         // fields()：返回一个迭代器，迭代此tuple内fields数组的所有元素。
-        return (Iterator<Field>) Arrays.asList(fields).iterator();
+        Field[] all = new Field[tupleDesc.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = getField(i);
+        return (Iterator<Field>) Arrays.asList(all).iterator();
     }
 
     /**
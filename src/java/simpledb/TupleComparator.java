@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Orders tuples on one or more fields, each ascending or descending; ties on
+ * a field are ordered by the next one.
+ * <p>
+ * A tuple's sort key can also be encoded once, by {@link #prefix}, into a
+ * normalized long whose unsigned order is the order of the tuples: an int
+ * field takes 32 bits with its sign bit flipped, a string field its first
+ * chars, each encoded alone as in UTF-8 (which keeps the order of
+ * String.compareTo, and ASCII to a byte a char) and padded with 0, and a
+ * descending field has its bits inverted. Fields are encoded in order until
+ * the 64 bits are used or a string is cut short. Tuples whose prefixes
+ * differ are ordered by them; equal prefixes decide only when the whole key
+ * fits, as {@link #prefixIsKey} tells, and otherwise compare() breaks the
+ * tie.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    final int[] fields;
+    final boolean[] asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("one direction is needed for each of 1 or more fields");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareField(o1, o2, fields[i]);
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    private static int compareField(Tuple o1, Tuple o2, int field) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return Integer.compare(o1.getInt(field), o2.getInt(field));
+        Field t1 = (o1).getField(field);
+        Field t2 = (o2).getField(field);
+        if (t1.compare(Predicate.Op.EQUALS, t2))
+            return 0;
+        return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+    }
+
+    /**
+     * @return true if the prefixes of tuples of schema td hold their whole
+     *         sort key, which they do for up to two int fields
+     */
+    boolean prefixIsKey(TupleDesc td) {
+        if (fields.length > 2)
+            return false;
+        for (int f : fields) {
+            if (td.getFieldType(f) != Type.INT_TYPE)
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the normalized prefix of t's sort key */
+    long prefix(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        long key = 0;
+        int bits = 0;
+        for (int i = 0; i < fields.length && bits < 64; i++) {
+            if (td.getFieldType(fields[i]) == Type.INT_TYPE) {
+                // bits is 0 or 32 here, as only a string stops off a 32 bit boundary
+                long v = (t.getInt(fields[i]) ^ 0x80000000) & 0xFFFFFFFFL;
+                if (!asc[i])
+                    v ^= 0xFFFFFFFFL;
+                key |= v << (32 - bits);
+                bits += 32;
+            } else {
+                String s = ((StringField) t.getField(fields[i])).getValue();
+                int start = bits;
+                for (int c = 0; c < s.length() && bits < 64; c++) {
+                    char ch = s.charAt(c);
+                    if (ch < 0x80) {
+                        key |= (long) ch << (56 - bits);
+                        bits += 8;
+                    } else if (ch < 0x800) {
+                        key = putByte(key, bits, 0xC0 | ch >> 6);
+                        key = putByte(key, bits + 8, 0x80 | ch & 0x3F);
+                        bits += 16;
+                    } else {
+                        key = putByte(key, bits, 0xE0 | ch >> 12);
+                        key = putByte(key, bits + 8, 0x80 | ch >> 6 & 0x3F);
+                        key = putByte(key, bits + 16, 0x80 | ch & 0x3F);
+                        bits += 24;
+                    }
+                }
+                // the rest of the key, padding included, belongs to the string
+                if (!asc[i])
+                    key ^= start == 0 ? -1L : (1L << (64 - start)) - 1;
+                // the rest of the string is not in the prefix, so neither are
+                // the fields after it
+                break;
+            }
+        }
+        return key;
+    }
+
+    /** @return key with byte b at bit offset bits, if it is within the 64 bits */
+    private static long putByte(long key, int bits, int b) {
+        return bits < 64 ? key | (long) b << (56 - bits) : key;
+    }
+
+    /**
+     * Compares two tuples whose prefixes are ka and kb.
+     *
+     * @param prefixIsKey
+     *            the value of {@link #prefixIsKey} for the tuples' schema
+     */
+    int compare(long ka, Tuple a, long kb, Tuple b, boolean prefixIsKey) {
+        int c = Long.compareUnsigned(ka, kb);
+        if (c != 0 || prefixIsKey)
+            return c;
+        return compare(a, b);
+    }
+}
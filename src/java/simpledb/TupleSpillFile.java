@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * TupleSpillFile is a temporary file of tuples that an operator writes when
+ * its input does not fit in memory. Tuples are appended with add() and read
+ * back in the same order by any number of readers. Fields are stored as by
+ * {@link Field#serialize}; record ids are not kept.
+ * <p>
+ * The file is deleted by delete(), or when the JVM exits. Files are created
+ * in java.io.tmpdir unless another directory is given with
+ * -Dsimpledb.SpillDir or setDirectory().
+ */
+public class TupleSpillFile {
+
+    private static volatile File directory = System.getProperty("simpledb.SpillDir") == null
+            ? null : new File(System.getProperty("simpledb.SpillDir"));
+
+    /** @return the directory spill files are created in, or null for the default */
+    public static File getDirectory() {
+        return directory;
+    }
+
+    /** Sets the directory new spill files are created in; null for the default. */
+    public static void setDirectory(File dir) {
+        directory = dir;
+    }
+
+    private final TupleDesc td;
+    private final boolean allInts;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples of the given schema.
+     *
+     * @throws IOException if the temporary file cannot be created
+     */
+    public TupleSpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        boolean ints = true;
+        for (int i = 0; i < td.numFields(); i++)
+            ints &= td.getFieldType(i) == Type.INT_TYPE;
+        this.allInts = ints;
+        this.file = File.createTempFile("simpledb-spill", ".tmp", directory);
+        file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /** Appends t to the file. */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is closed for writing");
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(t.getInt(i));
+            else
+                t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /** @return the number of tuples added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes the tuples take on disk */
+    public long bytes() {
+        return (long) size * td.getSize();
+    }
+
+    /**
+     * Returns a reader over the tuples added so far. The first call ends
+     * writing; add() may not be called afterwards.
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /** Closes the file and removes it from disk. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is being discarded
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a TupleSpillFile in the order they were added. */
+    public class Reader {
+        private final DataInputStream in;
+        private int remaining = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /** @return the next tuple, or null once all have been read */
+        public Tuple next() throws IOException {
+            if (remaining == 0) {
+                in.close();
+                return null;
+            }
+            remaining--;
+            Tuple t = allInts ? new IntTuple(td) : new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (allInts) {
+                    t.setInt(i, in.readInt());
+                } else {
+                    try {
+                        t.setField(i, td.getFieldType(i).parse(in));
+                    } catch (ParseException e) {
+                        throw new IOException("corrupt spill file " + file, e);
+                    }
+                }
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
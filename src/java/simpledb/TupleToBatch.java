@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * Adapts a tuple-at-a-time {@link OpIterator} to the {@link BatchOpIterator}
+ * interface by copying up to a batch worth of its tuples into a
+ * {@link ColumnBatch} per call.
+ */
+public class TupleToBatch implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final ColumnBatch batch;
+
+    /**
+     * @param child
+     *            the tuple iterator to read from
+     */
+    public TupleToBatch(OpIterator child) {
+        this.child = child;
+        this.batch = new ColumnBatch(child.getTupleDesc());
+    }
+
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
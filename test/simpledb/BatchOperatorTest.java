@@ -0,0 +1,181 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Checks every batch operator against its tuple-at-a-time counterpart.
+ */
+public class BatchOperatorTest extends SimpleDbTestBase {
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // more rows than one batch, and small values so joins and groups hit
+        left = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null);
+        right = SystemTestUtil.createRandomHeapFile(2, 700, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new SeqScan(tid, left.getId()));
+        assertEquals(3000, expected.size());
+        SystemTestUtil.matchTuples(new BatchToTuple(new BatchSeqScan(tid, left.getId())), expected);
+
+        // fields are named like SeqScan's, after the alias
+        TupleDesc td = new SeqScan(tid, left.getId(), "t").getTupleDesc();
+        TupleDesc batchTd = new BatchSeqScan(tid, left.getId(), "t").getTupleDesc();
+        assertEquals(td.numFields(), batchTd.numFields());
+        for (int i = 0; i < td.numFields(); i++)
+            assertEquals(td.getFieldName(i), batchTd.getFieldName(i));
+        assertEquals("t.", batchTd.getFieldName(0).substring(0, 2));
+    }
+
+    /**
+     * A page fills a batch from its bytes without building tuples, except
+     * for a slot whose tuple was inserted
+     */
+    @Test
+    public void fillFromBytes() throws Exception {
+        HeapPage page = (HeapPage) left.readPage(new HeapPageId(left.getId(), 0));
+        Tuple first = page.tuple(0);
+        page.deleteTuple(first);
+        Tuple inserted = new Tuple(left.getTupleDesc());
+        for (int i = 0; i < 3; i++)
+            inserted.setField(i, new IntField(1000 + i));
+        page.insertTuple(inserted);
+
+        ColumnBatch batch = new ColumnBatch(left.getTupleDesc(), page.getNumSlots());
+        assertEquals(page.getNumSlots(), page.fill(batch, 0));
+        HeapPage reread = (HeapPage) left.readPage(page.getId());
+        Iterator<Tuple> expected = reread.iterator();
+        for (int row = 0; row < batch.size(); row++) {
+            Tuple t = expected.next();
+            int slot = t.getRecordId().getTupleNumber();
+            if (slot == inserted.getRecordId().getTupleNumber())
+                t = inserted;
+            else
+                assertNull(page.tuples.get(slot));
+            for (int i = 0; i < 3; i++)
+                assertEquals(t.getInt(i), batch.getInt(i, row));
+        }
+        assertFalse(expected.hasNext());
+    }
+
+    @Test
+    public void adapters() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new SeqScan(tid, left.getId()));
+        SystemTestUtil.matchTuples(
+                new BatchToTuple(new TupleToBatch(new SeqScan(tid, left.getId()))), expected);
+    }
+
+    @Test
+    public void filter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(25));
+            ArrayList<ArrayList<Integer>> expected =
+                    SystemTestUtil.drain(new Filter(p, new SeqScan(tid, left.getId())));
+            SystemTestUtil.matchTuples(
+                    new BatchToTuple(new BatchFilter(p, new BatchSeqScan(tid, left.getId()))), expected);
+        }
+    }
+
+    @Test
+    public void stringFilter() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 37), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            rows.add(t);
+        }
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(0, op, new StringField("s2", Type.STRING_LEN));
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            OpIterator f = new Filter(p, new TupleIterator(td, rows));
+            f.open();
+            while (f.hasNext())
+                expected.add(((IntField) f.next().getField(1)).getValue());
+            f.close();
+
+            BatchOpIterator bf = new BatchFilter(p, new TupleToBatch(new TupleIterator(td, rows)));
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            bf.open();
+            ColumnBatch b;
+            while ((b = bf.nextBatch()) != null)
+                for (int i = 0; i < b.size(); i++)
+                    actual.add(b.getInt(1, i));
+            bf.close();
+            assertEquals(op.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void project() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0, 2));
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+        ArrayList<ArrayList<Integer>> expected =
+                SystemTestUtil.drain(new Project(fields, types, new SeqScan(tid, left.getId())));
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1));
+        // filter after project so the filter compacts the shared columns
+        SystemTestUtil.matchTuples(new BatchToTuple(new BatchFilter(p,
+                new BatchProject(fields, types, new BatchSeqScan(tid, left.getId())))), expected);
+    }
+
+    @Test
+    public void hashJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        assertTrue(expected.size() > ColumnBatch.DEFAULT_SIZE);
+        SystemTestUtil.matchTuples(new BatchToTuple(new BatchHashEquiJoin(p,
+                new BatchSeqScan(tid, left.getId()), new BatchSeqScan(tid, right.getId()))), expected);
+    }
+
+    @Test
+    public void aggregate() throws Exception {
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                // Aggregate itself cannot be built without a group field, so
+                // compute the expected rows with its aggregator
+                Aggregator agg = new IntegerAggregator(gfield,
+                        gfield == Aggregator.NO_GROUPING ? null : Type.INT_TYPE, 2, op);
+                OpIterator scan = new SeqScan(tid, left.getId());
+                scan.open();
+                while (scan.hasNext())
+                    agg.mergeTupleIntoGroup(scan.next());
+                scan.close();
+                ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(agg.iterator());
+                SystemTestUtil.matchTuples(new BatchToTuple(
+                        new BatchAggregate(new BatchSeqScan(tid, left.getId()), 2, gfield, op)), expected);
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOperatorTest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Vector;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+  OpIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3,
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3,
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3,
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    it.rewind();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Every block size, including blocks larger than the outer relation and
+   * blocks that do not divide it, returns the same rows as Join.
+   */
+  @Test public void blockSizes() throws Exception {
+    for (int blockSize : new int[] { 1, 2, 3, 4, 100 }) {
+      for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+          Predicate.Op.GREATER_THAN }) {
+        OpIterator expected = op == Predicate.Op.EQUALS ? eqJoin : gtJoin;
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(
+            new JoinPredicate(0, op, 0), scan1, scan2, blockSize);
+        assertEquals(blockSize, join.getBlockSize());
+        assertEquals(Utility.getTupleDesc(width1 + width2), join.getTupleDesc());
+        join.open();
+        expected.open();
+        TestUtil.matchAllTuples(expected, join);
+        assertEquals(count(expected), count(join));
+        join.close();
+        expected.close();
+      }
+    }
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(
+        new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2, 3);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(n, count(op));
+    op.close();
+  }
+
+  /**
+   * The default block holds DEFAULT_BLOCK_PAGES pages of outer tuples.
+   */
+  @Test public void defaultBlockSize() {
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    int perPage = BufferPool.getPageSize() * 8 / (width1 * Type.INT_TYPE.getLen() * 8 + 1);
+    assertEquals(BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES * perPage, op.getBlockSize());
+  }
+
+  /**
+   * A non-equality join costs one more inner scan per additional block.
+   */
+  @Test public void estimateJoinCost() {
+    JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+    LogicalJoinNode j = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.GREATER_THAN);
+    int block = BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(1),
+        BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    double oneBlock = jo.estimateJoinCost(j, block, 10, 100, 1000);
+    double twoBlocks = jo.estimateJoinCost(j, block + 1, 10, 100, 1000);
+    assertEquals(100 + 1000 + block * 10.0, oneBlock, 0.001);
+    assertEquals(oneBlock + 1000 + 10, twoBlocks, 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // 20 pages of two int columns
+        hf = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for BufferPool.pageKey()
+     */
+    @Test
+    public void pageKey() {
+        long heap = BufferPool.pageKey(new HeapPageId(7, 3));
+        assertEquals(heap, BufferPool.pageKey(7, 3, 0));
+        assertTrue(heap != BufferPool.pageKey(new HeapPageId(7, 4)));
+        assertTrue(heap != BufferPool.pageKey(new HeapPageId(8, 3)));
+        assertTrue(BufferPool.pageKey(new BTreePageId(7, 3, BTreePageId.LEAF))
+                != BufferPool.pageKey(new BTreePageId(7, 3, BTreePageId.INTERNAL)));
+        assertTrue(BufferPool.pageKey(7, (1 << 30) - 1, 0) != BufferPool.pageKey(7, 0, 0));
+    }
+
+    /**
+     * Page numbers that do not fit in a key are refused rather than truncated
+     * onto another page's key
+     */
+    @Test
+    public void pageKeyRange() {
+        for (int pgNo : new int[] { 1 << 30, Integer.MAX_VALUE, -1 }) {
+            try {
+                BufferPool.pageKey(7, pgNo, 0);
+                fail("page number " + pgNo + " should not fit in a key");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Looking a page up by number and by PageId finds the same frame
+     */
+    @Test
+    public void primitiveLookup() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Page byNumber = bp.getPage(tid, hf.getId(), 5, 0, Permissions.READ_ONLY);
+        assertEquals(new HeapPageId(hf.getId(), 5), byNumber.getId());
+        long hits = bp.getHitCount();
+        assertSame(byNumber, bp.getPage(tid, new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY));
+        assertEquals(hits + 1, bp.getHitCount());
+        assertTrue(bp.holdsLock(tid, new HeapPageId(hf.getId(), 5)));
+    }
+
+    /**
+     * Locks outlive eviction of the page they protect and are released on
+     * commit
+     */
+    @Test
+    public void locksSurviveEviction() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, hf.getId(), i, 0, Permissions.READ_ONLY);
+        for (int i = 0; i < hf.numPages(); i++)
+            assertTrue(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+
+        TransactionId other = new TransactionId();
+        try {
+            bp.getPage(other, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            fail("page 0 is still share-locked by tid");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(other, false);
+        bp.transactionComplete(tid);
+        for (int i = 0; i < hf.numPages(); i++)
+            assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        bp.getPage(other, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * Committing releases every lock of a transaction while the frames it
+     * empties are dropped from the page table, and no lock of another
+     */
+    @Test
+    public void releaseWhileDropping() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        TransactionId tid2 = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, hf.getId(), i, 0, Permissions.READ_ONLY);
+            bp.getPage(tid, other.getId(), i, 0, Permissions.READ_ONLY);
+            if (i % 2 == 0)
+                bp.getPage(tid2, hf.getId(), i, 0, Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+            assertFalse(bp.holdsLock(tid, new HeapPageId(other.getId(), i)));
+            assertEquals(i % 2 == 0, bp.holdsLock(tid2, new HeapPageId(hf.getId(), i)));
+        }
+        bp.transactionComplete(tid2);
+        for (int i = 0; i < hf.numPages(); i += 2)
+            assertFalse(bp.holdsLock(tid2, new HeapPageId(hf.getId(), i)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +96,85 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Data files get small dense ids that Database.reset() keeps, so files
+     * reopened after it get the same ids and new files get new ones
+     */
+    @Test public void stableDenseIds() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        Assert.assertTrue(a.getId() >= 0 && a.getId() < 1 << 16);
+        Assert.assertTrue(a.getId() != b.getId());
+        assertEquals(a.getId(), Utility.openHeapFile(2, a.getFile()).getId());
+
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, a.getFile());
+        assertEquals(a.getId(), reopened.getId());
+        assertEquals(reopened, Database.getCatalog().getDatabaseFile(a.getId()));
+        assertEquals(b.getId(), Utility.openHeapFile(2, b.getFile()).getId());
+        HeapFile c = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        Assert.assertTrue(c.getId() != a.getId() && c.getId() != b.getId());
+    }
+
+    /**
+     * loadSchema() saves the ids it assigns and reuses them on the next load
+     */
+    @Test public void persistedIds() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File catalog = new File(dir, "catalog.txt");
+        try (PrintWriter pw = new PrintWriter(catalog)) {
+            pw.println("t1 (a int, b int)");
+            pw.println("t2 (c string)");
+        }
+        // pretend an earlier run gave t2 an id nobody in this process has
+        int savedId = 1000 + r.nextInt(1000);
+        try (PrintWriter pw = new PrintWriter(new File(dir, "catalog.txt.ids"))) {
+            pw.println("t2 " + savedId);
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int t1 = Database.getCatalog().getTableId("t1");
+        assertEquals(savedId, Database.getCatalog().getTableId("t2"));
+
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertEquals(t1, Database.getCatalog().getTableId("t1"));
+        assertEquals(savedId, Database.getCatalog().getTableId("t2"));
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Saved ids are reserved before new tables are given one, so a new table
+     * listed first does not take the id saved for a later one
+     */
+    @Test public void savedIdsReservedFirst() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File catalog = new File(dir, "catalog.txt");
+        try (PrintWriter pw = new PrintWriter(catalog)) {
+            pw.println("fresh (a int)");
+            pw.println("old (b int)");
+        }
+        // the id a new table would otherwise be given
+        int saved = Catalog.nextTableId();
+        try (PrintWriter pw = new PrintWriter(new File(dir, "catalog.txt.ids"))) {
+            pw.println("old " + saved);
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int fresh = Database.getCatalog().getTableId("fresh");
+        assertEquals(saved, Database.getCatalog().getTableId("old"));
+        Assert.assertTrue(fresh != saved);
+
+        // a restart reads both ids back
+        Database.reset();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertEquals(saved, Database.getCatalog().getTableId("old"));
+        assertEquals(fresh, Database.getCatalog().getTableId("fresh"));
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,89 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DirectIOTest extends SimpleDbTestBase {
+    private File f;
+    private byte[] contents;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        DirectIO.setEnabled(true);
+        contents = new byte[3 * 4096 + 100];
+        new Random(42).nextBytes(contents);
+        f = File.createTempFile("directio", ".dat");
+        f.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(contents);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        DirectIO.setEnabled(false);
+    }
+
+    /**
+     * Reads at unaligned offsets and across the end of the file must return
+     * the same bytes as a buffered read.
+     */
+    @Test
+    public void unalignedReads() throws Exception {
+        long[] offsets = {0, 9, 4096, 4096 + 9, 2 * 4096 + 4000};
+        for (long off : offsets) {
+            byte[] dst = new byte[4096];
+            int n = DirectIO.read(f, off, dst);
+            int expected = (int) Math.min(dst.length, contents.length - off);
+            assertEquals(expected, n);
+            assertArrayEquals(Arrays.copyOfRange(contents, (int) off, (int) off + n),
+                    Arrays.copyOf(dst, n));
+        }
+        assertEquals(-1, DirectIO.read(f, contents.length + 10, new byte[16]));
+    }
+
+    /**
+     * A file replaced under its cached channel is read again once closed.
+     */
+    @Test
+    public void replacedFile() throws Exception {
+        byte[] dst = new byte[16];
+        DirectIO.read(f, 0, dst);
+        assertTrue(f.delete());
+        byte[] other = new byte[contents.length];
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(other);
+        }
+        DirectIO.close(f);
+        assertEquals(16, DirectIO.read(f, 0, dst));
+        assertArrayEquals(new byte[16], dst);
+    }
+
+    /**
+     * Heap file scans return the same tuples with direct reads enabled.
+     */
+    @Test
+    public void heapFileScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DirectIOTest.class);
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EncodedColumnTest extends SimpleDbTestBase {
+
+  private static final Predicate.Op[] OPS = new Predicate.Op[] {
+      Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+      Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+      Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.LIKE };
+
+  /**
+   * Checks that filtering the encoded column gives the same rows as
+   * filtering the boxed fields, and that every row decodes correctly.
+   */
+  private void checkColumn(EncodedColumn col, ArrayList<Field> values,
+      Field[] operands) {
+    assertEquals(values.size(), col.size());
+    for (int i = 0; i < values.size(); i++)
+      assertEquals(values.get(i), col.get(i));
+
+    for (Predicate.Op op : OPS) {
+      for (Field operand : operands) {
+        BitSet expected = new BitSet();
+        for (int i = 0; i < values.size(); i++)
+          if (values.get(i).compare(op, operand))
+            expected.set(i);
+        assertEquals(op + " " + operand, expected,
+            new Predicate(0, op, operand).filter(col));
+      }
+    }
+  }
+
+  private static Field[] intOperands(int... vals) {
+    Field[] res = new Field[vals.length];
+    for (int i = 0; i < vals.length; i++)
+      res[i] = new IntField(vals[i]);
+    return res;
+  }
+
+  /**
+   * Unit test for FrameOfReferenceColumn over a random int column
+   */
+  @Test public void frameOfReference() {
+    Random r = new Random(1);
+    ArrayList<Field> values = new ArrayList<Field>();
+    for (int i = 0; i < 1000; i++)
+      values.add(new IntField(r.nextInt(5000) - 1000));
+    EncodedColumn col = ColumnEncoder.encode(Type.INT_TYPE, values);
+    assertTrue(col instanceof FrameOfReferenceColumn);
+    assertEquals(13, ((FrameOfReferenceColumn) col).getBitWidth());
+    checkColumn(col, values, intOperands(-5000, -1000, 0, 1234, 3999, 10000));
+  }
+
+  /**
+   * Unit test for FrameOfReferenceColumn with extreme values
+   */
+  @Test public void frameOfReferenceFullRange() {
+    ArrayList<Field> values = new ArrayList<Field>();
+    values.add(new IntField(Integer.MIN_VALUE));
+    values.add(new IntField(Integer.MAX_VALUE));
+    values.add(new IntField(0));
+    values.add(new IntField(-1));
+    EncodedColumn col = new FrameOfReferenceColumn(values);
+    checkColumn(col, values, intOperands(Integer.MIN_VALUE, -1, 0,
+        Integer.MAX_VALUE));
+  }
+
+  /**
+   * Unit test for RunLengthColumn over a sorted int column
+   */
+  @Test public void runLength() {
+    ArrayList<Field> values = new ArrayList<Field>();
+    for (int i = 0; i < 1000; i++)
+      values.add(new IntField(i / 100));
+    EncodedColumn col = ColumnEncoder.encode(Type.INT_TYPE, values);
+    assertTrue(col instanceof RunLengthColumn);
+    assertEquals(10, ((RunLengthColumn) col).numRuns());
+    checkColumn(col, values, intOperands(-1, 0, 5, 9, 10));
+  }
+
+  /**
+   * Unit test for DictionaryColumn over a low-cardinality string column
+   */
+  @Test public void dictionary() {
+    String[] words = new String[] { "pear", "apple", "fig", "banana", "kiwi" };
+    Random r = new Random(2);
+    ArrayList<Field> values = new ArrayList<Field>();
+    for (int i = 0; i < 500; i++)
+      values.add(new StringField(words[r.nextInt(words.length)], Type.STRING_LEN));
+    EncodedColumn col = ColumnEncoder.encode(Type.STRING_TYPE, values);
+    assertTrue(col instanceof DictionaryColumn);
+    assertEquals(5, ((DictionaryColumn) col).cardinality());
+
+    Field[] operands = new Field[] {
+        new StringField("apple", Type.STRING_LEN),
+        new StringField("b", Type.STRING_LEN),
+        new StringField("kiwi", Type.STRING_LEN),
+        new StringField("zzz", Type.STRING_LEN),
+        new StringField("an", Type.STRING_LEN) };
+    checkColumn(col, values, operands);
+  }
+
+  /**
+   * Unit test for ColumnEncoder.encode over an OpIterator
+   */
+  @Test public void encodeIterator() throws Exception {
+    OpIterator scan = new TestUtil.MockScan(-5, 5, 2);
+    EncodedColumn col = ColumnEncoder.encode(scan, 1);
+    assertEquals(10, col.size());
+    BitSet res = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(0)).filter(col);
+    assertEquals(5, res.cardinality());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EncodedColumnTest.class);
+  }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Checks FusedScan against the Filter/SeqScan/Aggregate plans it replaces.
+ */
+public class FusedScanTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // small values so that groups and predicates hit
+        table = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null, "c");
+        Database.getCatalog().addTable(table, "fused");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        FusedScan.setEnabled(true);
+    }
+
+    private Predicate[] predicates() {
+        return new Predicate[]{
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7))};
+    }
+
+    private OpIterator iteratorPlan() {
+        OpIterator plan = new SeqScan(tid, table.getId());
+        for (Predicate p : predicates())
+            plan = new Filter(p, plan);
+        return plan;
+    }
+
+    @Test
+    public void filter() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(iteratorPlan());
+        FusedScan fused = FusedScan.fuse(tid, table.getId(), "fused", iteratorPlan());
+        assertNotNull(fused);
+        assertEquals(2, fused.getPredicates().length);
+        SystemTestUtil.matchTuples(fused, expected);
+
+        fused.open();
+        int n = 0;
+        while (fused.hasNext()) {
+            fused.next();
+            n++;
+        }
+        fused.rewind();
+        while (fused.hasNext()) {
+            fused.next();
+            n--;
+        }
+        fused.close();
+        assertEquals(0, n);
+    }
+
+    @Test
+    public void aggregate() throws Exception {
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                // Aggregate itself cannot be built without a group field, so
+                // compute the expected rows with its aggregator
+                Aggregator agg = new IntegerAggregator(gfield,
+                        gfield == Aggregator.NO_GROUPING ? null : Type.INT_TYPE, 2, op);
+                OpIterator it = iteratorPlan();
+                it.open();
+                while (it.hasNext())
+                    agg.mergeTupleIntoGroup(it.next());
+                it.close();
+                ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(agg.iterator());
+
+                OpIterator fused = FusedScan.aggregate(
+                        FusedScan.fuse(tid, table.getId(), "fused", iteratorPlan()), 2, gfield, op);
+                assertNotNull(fused);
+                SystemTestUtil.matchTuples(fused, expected);
+            }
+        }
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        OpIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table.getId()), new SeqScan(tid, table.getId()));
+        assertNull(FusedScan.fuse(tid, table.getId(), "fused", join));
+        FusedScan fused = FusedScan.fuse(tid, table.getId(), "fused", iteratorPlan());
+        assertNull(FusedScan.aggregate(fused, 2, 0, Aggregator.Op.SUM_COUNT));
+        assertNull(FusedScan.aggregate(FusedScan.aggregate(fused, 2, 0, Aggregator.Op.SUM), 1, 0,
+                Aggregator.Op.SUM));
+        FusedScan.setEnabled(false);
+        assertNull(FusedScan.fuse(tid, table.getId(), "fused", iteratorPlan()));
+    }
+
+    /**
+     * The planner fuses a single-table aggregate query and returns the same
+     * rows as the iterator plan
+     */
+    @Test
+    public void planner() throws Exception {
+        ArrayList<ArrayList<Integer>> fusedRows = null;
+        for (boolean fuse : new boolean[]{true, false}) {
+            FusedScan.setEnabled(fuse);
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(table.getId(), "fused");
+            lp.addFilter("fused.c1", Predicate.Op.GREATER_THAN, "10");
+            lp.addAggregate("sum", "fused.c2", "fused.c0");
+            lp.addProjectField("fused.c0", null);
+            lp.addProjectField("fused.c2", "sum");
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            stats.put("fused", new TableStats(table.getId(), 1));
+            OpIterator plan = lp.physicalPlan(tid, stats, false);
+            OpIterator below = ((Operator) plan).getChildren()[0];
+            assertEquals(fuse, below instanceof FusedScan);
+            ArrayList<ArrayList<Integer>> rows = SystemTestUtil.drain(plan);
+            Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+                public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                    return a.get(0).compareTo(b.get(0));
+                }
+            });
+            if (fusedRows == null)
+                fusedRows = rows;
+            else
+                assertEquals(fusedRows, rows);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FusedScanTest.class);
+    }
+}
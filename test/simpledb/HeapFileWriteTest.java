@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.*;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,45 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.fragmentation(), compact() and truncate()
+     */
+    @Test public void compact() throws Exception {
+        // fill four pages, then delete every other tuple
+        ArrayList<Tuple> live = new ArrayList<Tuple>();
+        ArrayList<Tuple> dead = new ArrayList<Tuple>();
+        for (int i = 0; i < 4 * 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            (i % 2 == 0 ? live : dead).add(t);
+        }
+        for (Tuple t : dead)
+            empty.deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(4, empty.numPages());
+        assertEquals(0.5, empty.fragmentation(tid), 1e-9);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Map<RecordId, RecordId> moved = empty.vacuum();
+        assertEquals(504, moved.size());
+        assertEquals(2, empty.numPages());
+
+        tid = new TransactionId();
+        assertEquals(0.0, empty.fragmentation(tid), 1e-9);
+        HashSet<Integer> seen = new HashSet<Integer>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            seen.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        assertEquals(live.size(), seen.size());
+        for (Tuple t : live)
+            assertTrue(seen.contains(((IntField) t.getField(0)).getValue()));
+        for (RecordId to : moved.values())
+            assertTrue(to.getPageId().getPageNumber() < 2);
+    }
+
     /**
      * JUnit suite target
      */
@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -94,6 +95,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         page.deleteTuple(Utility.getHeapTuple(2, 2));
     }
 
+    /**
+     * Unit test for HeapPage.deleteTuple() with a tuple of another page in a
+     * used slot of this one
+     */
+    @Test public void deleteTupleOfOtherPage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple t = page.iterator().next();
+        int slot = t.getRecordId().getTupleNumber();
+        Tuple other = new Tuple(t.getTupleDesc());
+        other.setRecordId(new RecordId(
+                new HeapPageId(pid.getTableId(), pid.getPageNumber() + 1), slot));
+        try {
+            page.deleteTuple(other);
+            fail("deleted a tuple of another page");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(page.isSlotUsed(slot));
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple()
      */
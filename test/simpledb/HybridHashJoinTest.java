@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> expected(int keys) throws Exception {
+        return SystemTestUtil.drain(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.randomTuples(2, 500, keys, 1), TestUtil.randomTuples(3, 700, keys, 2)));
+    }
+
+    private static HybridHashJoin join(int keys, int memoryTuples) {
+        return new HybridHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.randomTuples(2, 500, keys, 1), TestUtil.randomTuples(3, 700, keys, 2),
+                memoryTuples);
+    }
+
+    /**
+     * A build side that fits in memory is joined without spilling.
+     */
+    @Test public void inMemory() throws Exception {
+        HybridHashJoin j = join(100, 500);
+        SystemTestUtil.matchTuples(j, expected(100));
+        assertEquals(0, j.getSpilledPartitions());
+    }
+
+    /**
+     * A build side over budget is partitioned to disk and gives the same
+     * rows, whether or not partition 0 stays in memory.
+     */
+    @Test public void spilled() throws Exception {
+        for (int memoryTuples : new int[] { 10, 60, 499 }) {
+            HybridHashJoin j = join(1000, memoryTuples);
+            SystemTestUtil.matchTuples(j, expected(1000));
+            assertTrue(j.getSpilledPartitions() > 0);
+        }
+    }
+
+    /**
+     * Partitions that stay over budget because of a common key are joined a
+     * chunk at a time.
+     */
+    @Test public void skewed() throws Exception {
+        HybridHashJoin j = join(3, 20);
+        SystemTestUtil.matchTuples(j, expected(3));
+    }
+
+    /**
+     * Unit test for HybridHashJoin.rewind() after spilling
+     */
+    @Test public void rewind() throws Exception {
+        HybridHashJoin j = join(1000, 10);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        assertTrue(TestUtil.checkExhausted(j));
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n--;
+        }
+        j.close();
+        assertEquals(0, n);
+        assertEquals(expected(1000).size(), SystemTestUtil.drain(join(1000, 10)).size());
+    }
+
+    /**
+     * Joins on string keys spill their strings
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] left = new Object[200];
+        Object[] right = new Object[200];
+        for (int i = 0; i < 100; i++) {
+            left[2 * i] = "k" + (i % 30);
+            left[2 * i + 1] = i;
+            right[2 * i] = "k" + (i % 40);
+            right[2 * i + 1] = -i;
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator expected = new HashEquiJoin(p, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right));
+        HybridHashJoin j = new HybridHashJoin(p, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right), 5);
+        expected.open();
+        j.open();
+        TestUtil.matchAllTuples(expected, j);
+        assertTrue(j.getSpilledPartitions() > 0);
+        int n = 0;
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        // keys k0-k9 match 4 x 3 times, k10-k19 3 x 3 and k20-k29 3 x 2
+        assertEquals(270, n);
+        j.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HybridHashJoinTest.class);
+    }
+}
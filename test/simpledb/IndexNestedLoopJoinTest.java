@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private HeapFile outer;
+    private BTreeFile inner;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        outer = SystemTestUtil.createRandomHeapFile(2, 300, 400, null, null, "c");
+        Database.getCatalog().addTable(outer, "outer", "c0");
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 3000, 400, null, null, 0);
+        inner = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private OpIterator outerScan() {
+        return new SeqScan(tid, outer.getId(), "a");
+    }
+
+    private OpIterator innerScan() {
+        return new SeqScan(tid, inner.getId(), "b");
+    }
+
+    /**
+     * Probing the index gives the rows of a nested-loop join, for equality
+     * and range predicates.
+     */
+    @Test public void probe() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            JoinPredicate p = new JoinPredicate(1, op, 0);
+            OpIterator o = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)),
+                    outerScan());
+            ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(
+                    new BlockNestedLoopJoin(p, o, innerScan()));
+            SystemTestUtil.matchTuples(new IndexNestedLoopJoin(p, o, innerScan()), expected);
+        }
+    }
+
+    /**
+     * Filters over the inner scan apply to the tuples found in the index
+     */
+    @Test public void innerFilters() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        OpIterator i = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(200)),
+                innerScan());
+        ArrayList<ArrayList<Integer>> expected =
+                SystemTestUtil.drain(new HashEquiJoin(p, outerScan(), i));
+        SystemTestUtil.matchTuples(new IndexNestedLoopJoin(p, outerScan(), i), expected);
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0), outerScan(), innerScan());
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        assertTrue(TestUtil.checkExhausted(j));
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n--;
+        }
+        j.close();
+        assertEquals(0, n);
+    }
+
+    /**
+     * The planner probes the index for an outer restricted to one value of
+     * its key, but not to one value of another field, and the cost model
+     * prefers probing for few outer tuples.
+     */
+    @Test public void planning() throws Exception {
+        assertTrue(IndexNestedLoopJoin.canProbe(innerScan(), 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(innerScan(), 1));
+        assertFalse(IndexNestedLoopJoin.canProbe(outerScan(), 0));
+
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c1", "c0", Predicate.Op.EQUALS);
+        OpIterator point = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+                outerScan());
+        assertTrue(JoinOptimizer.instantiateJoin(lj, point, innerScan())
+                instanceof IndexNestedLoopJoin);
+        assertFalse(JoinOptimizer.instantiateJoin(lj, outerScan(), innerScan())
+                instanceof IndexNestedLoopJoin);
+        OpIterator notKey = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(7)),
+                outerScan());
+        assertFalse(JoinOptimizer.instantiateJoin(lj, notKey, innerScan())
+                instanceof IndexNestedLoopJoin);
+        Predicate[] pushed = { new Predicate(0, Predicate.Op.EQUALS, new IntField(7)) };
+        assertTrue(JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "a", pushed), innerScan())
+                instanceof IndexNestedLoopJoin);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "a");
+        lp.addScan(inner.getId(), "b");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        double scan = 1000.0 * inner.numPages();
+        // without a point lookup on the outer no probing join is built, so
+        // none is priced
+        assertTrue(jo.estimateJoinCost(lj, 2, 3000, 1000, scan) >= 1000 + scan);
+        lp.addFilter("a.c0", Predicate.Op.EQUALS, "7");
+        double few = jo.estimateJoinCost(lj, 2, 3000, 1000, scan);
+        double many = jo.estimateJoinCost(lj, 300000, 3000, 1000000, scan);
+        assertTrue(few < 1000 + scan);
+        // too many probes: the hash join, which spills, is cheaper
+        assertTrue(many >= 1000000 + scan + 300000 + 3000);
+        assertTrue(many < 1000000 + 300000 * (scan / inner.numPages()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
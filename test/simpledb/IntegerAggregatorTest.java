@@ -178,6 +178,53 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that sums are accumulated in 64 bits, with and without grouping
+   */
+  @Test public void avgLongSum() throws Exception {
+    int big = Integer.MAX_VALUE - 1;
+    OpIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, big, 1, big, 2, -big, 2, -big, 2, -big });
+    IntegerAggregator grouped = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator ungrouped = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1,
+        Aggregator.Op.AVG);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      grouped.mergeTupleIntoGroup(t);
+      ungrouped.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = grouped.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, big, 2, -big }), it);
+    it = ungrouped.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { -big / 5 }), it);
+  }
+
+  /**
+   * Test COUNT and MIN without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    scan1.open();
+    IntegerAggregator count = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1,
+        Aggregator.Op.COUNT);
+    IntegerAggregator min = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0,
+        Aggregator.Op.MIN);
+    while (scan1.hasNext()) {
+      Tuple t = scan1.next();
+      count.mergeTupleIntoGroup(t);
+      min.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = count.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 7 }), it);
+    it = min.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 1 }), it);
+  }
+
   /**
    * JUnit suite target
    */
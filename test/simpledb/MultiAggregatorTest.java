@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MultiAggregatorTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> rows;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        rows = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(4, 2000, 6, null, rows, "c");
+        Database.getCatalog().addTable(table, "multi");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static final Comparator<List<Integer>> ROW_ORDER = new Comparator<List<Integer>>() {
+        public int compare(List<Integer> a, List<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+    };
+
+    private static ArrayList<ArrayList<Integer>> drainSorted(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            res.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        Collections.sort(res, ROW_ORDER);
+        return res;
+    }
+
+    /**
+     * c0, c1, SUM(c2), COUNT(c3), MAX(c3), MIN(c2), AVG(c3) grouped by
+     * (c0, c1), computed directly from the rows
+     */
+    private ArrayList<ArrayList<Integer>> expected() {
+        HashMap<List<Integer>, long[]> groups = new HashMap<List<Integer>, long[]>();
+        for (ArrayList<Integer> r : rows) {
+            List<Integer> key = Arrays.asList(r.get(0), r.get(1));
+            long[] g = groups.get(key);
+            if (g == null) {
+                g = new long[] { 0, 0, Long.MIN_VALUE, Long.MAX_VALUE, 0 };
+                groups.put(key, g);
+            }
+            g[0] += r.get(2);
+            g[1]++;
+            g[2] = Math.max(g[2], r.get(3));
+            g[3] = Math.min(g[3], r.get(2));
+            g[4] += r.get(3);
+        }
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        for (List<Integer> key : groups.keySet()) {
+            long[] g = groups.get(key);
+            res.add(new ArrayList<Integer>(Arrays.asList(key.get(0), key.get(1), (int) g[0],
+                    (int) g[1], (int) g[2], (int) g[3], (int) (g[4] / g[1]))));
+        }
+        Collections.sort(res, ROW_ORDER);
+        return res;
+    }
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN, Aggregator.Op.AVG };
+
+    /**
+     * Several aggregates over a composite key are computed in one pass
+     */
+    @Test public void compositeKey() throws Exception {
+        Aggregate a = new Aggregate(new SeqScan(tid, table.getId()),
+                new int[] { 2, 3, 3, 2, 3 }, new int[] { 0, 1 }, OPS);
+        assertEquals(7, a.getTupleDesc().numFields());
+        assertEquals(expected(), drainSorted(a));
+        // open() again computes the aggregates afresh
+        assertEquals(expected(), drainSorted(a));
+    }
+
+    /**
+     * Without grouping there is one row of aggregates
+     */
+    @Test public void noGrouping() throws Exception {
+        Aggregate a = new Aggregate(new SeqScan(tid, table.getId()),
+                new int[] { 2, 0 }, new int[0], new Aggregator.Op[] {
+                        Aggregator.Op.SUM, Aggregator.Op.COUNT });
+        long sum = 0;
+        for (ArrayList<Integer> r : rows)
+            sum += r.get(2);
+        ArrayList<ArrayList<Integer>> res = drainSorted(a);
+        assertEquals(1, res.size());
+        assertEquals(Arrays.asList((int) sum, rows.size()), res.get(0));
+    }
+
+    /**
+     * Group keys mixing string and int fields
+     */
+    @Test public void stringKeys() throws Exception {
+        OpIterator child = TestUtil.createTupleList(3, new Object[] {
+                "a", 1, 10,
+                "a", 2, 20,
+                "b", 1, 30,
+                "a", 1, 40,
+                "b", 1, 50 });
+        MultiAggregator agg = new MultiAggregator(child.getTupleDesc(), new int[] { 0, 1 },
+                new int[] { 2, 0 }, new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+        child.open();
+        while (child.hasNext())
+            agg.mergeTupleIntoGroup(child.next());
+        OpIterator it = agg.iterator();
+        it.open();
+        // groups come out in the order they were first seen
+        TestUtil.compareDbIterators(TestUtil.createTupleList(4, new Object[] {
+                "a", 1, 50, 2,
+                "a", 2, 20, 1,
+                "b", 1, 80, 2 }), it);
+    }
+
+    /**
+     * Only COUNT can be computed over a string field
+     */
+    @Test(expected = IllegalArgumentException.class) public void sumOfString() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        new MultiAggregator(td, new int[] { 1 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.SUM });
+    }
+
+    /**
+     * The parser plans several aggregates, COUNT(*) and several GROUP BY
+     * fields as one Aggregate
+     */
+    @Test public void parsed() throws Exception {
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT m.c0, m.c1, SUM(m.c2), COUNT(*), "
+                + "MAX(m.c3), MIN(c2), AVG(m.c3) FROM multi m GROUP BY m.c0, c1;");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("multi", new TableStats(table.getId(), 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(expected(), drainSorted(plan));
+
+        // the select list may name the group fields after the aggregates
+        lp = p.generateLogicalPlan(tid, "SELECT COUNT(m.c3), m.c1, m.c0 FROM multi m "
+                + "GROUP BY m.c0, m.c1;");
+        ArrayList<ArrayList<Integer>> reordered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> r : expected())
+            reordered.add(new ArrayList<Integer>(Arrays.asList(r.get(3), r.get(1), r.get(0))));
+        Collections.sort(reordered, ROW_ORDER);
+        assertEquals(reordered, drainSorted(lp.physicalPlan(tid, stats, false)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregatorTest.class);
+    }
+}
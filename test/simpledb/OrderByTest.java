@@ -0,0 +1,291 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /** Rows of (key, row number), so that the order of ties shows */
+    private static ArrayList<ArrayList<Integer>> randomRows(int rows, int keys, long seed) {
+        Random r = new Random(seed);
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(r.nextInt(keys));
+            row.add(i);
+            res.add(row);
+        }
+        return res;
+    }
+
+    private static TupleIterator tuples(ArrayList<ArrayList<Integer>> rows) {
+        int[] data = new int[2 * rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            data[2 * i] = rows.get(i).get(0);
+            data[2 * i + 1] = rows.get(i).get(1);
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /** The rows stably sorted on their key */
+    private static ArrayList<ArrayList<Integer>> sorted(ArrayList<ArrayList<Integer>> rows,
+            final boolean asc) {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(res, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return asc ? c : -c;
+            }
+        });
+        return res;
+    }
+
+    /**
+     * An input over budget is sorted in runs on disk, with the same stable
+     * order as an in-memory sort, and the runs are removed on close()
+     */
+    @Test public void spills() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = randomRows(5000, 100, 1);
+        File dir = Files.createTempDirectory("orderby").toFile();
+        File was = TupleSpillFile.getDirectory();
+        TupleSpillFile.setDirectory(dir);
+        try {
+            for (boolean asc : new boolean[] { true, false }) {
+                OrderBy o = new OrderBy(0, asc, tuples(rows), 500);
+                o.open();
+                assertEquals(10, o.getSpilledRuns());
+                assertEquals(10, dir.list().length);
+                assertEquals(sorted(rows, asc), SystemTestUtil.remaining(o));
+                o.rewind();
+                assertEquals(sorted(rows, asc), SystemTestUtil.remaining(o));
+                o.close();
+                assertEquals(0, dir.list().length);
+            }
+        } finally {
+            TupleSpillFile.setDirectory(was);
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * An input that fits is sorted in memory, and open() again sorts afresh
+     */
+    @Test public void fits() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = randomRows(1000, 50, 2);
+        OrderBy o = new OrderBy(0, true, tuples(rows));
+        o.open();
+        assertEquals(0, o.getSpilledRuns());
+        assertEquals(sorted(rows, true), SystemTestUtil.remaining(o));
+        o.close();
+        o.open();
+        assertEquals(sorted(rows, true), SystemTestUtil.remaining(o));
+        o.close();
+    }
+
+    /**
+     * Sorting buffers on several threads gives the same stable order as on
+     * one, in memory and in runs
+     */
+    @Test public void parallelSameAsSerial() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = randomRows(50000, 500, 7);
+        boolean was = ExternalSorter.isParallel();
+        try {
+            for (int memory : new int[] { 60000, 9000 }) {
+                ArrayList<ArrayList<ArrayList<Integer>>> res = new ArrayList<ArrayList<ArrayList<Integer>>>();
+                for (boolean parallel : new boolean[] { false, true }) {
+                    ExternalSorter.setParallel(parallel);
+                    OrderBy o = new OrderBy(0, false, tuples(rows), memory);
+                    o.open();
+                    res.add(SystemTestUtil.remaining(o));
+                    o.close();
+                }
+                assertEquals(sorted(rows, false), res.get(0));
+                assertEquals(res.get(0), res.get(1));
+            }
+        } finally {
+            ExternalSorter.setParallel(was);
+        }
+    }
+
+    /**
+     * More runs than the merge fan-in are merged in several passes
+     */
+    @Test public void mergePasses() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = randomRows(20000, 1000, 3);
+        int runs = 3 * ExternalSorter.MAX_FAN_IN + 5;
+        int memory = (rows.size() + runs - 1) / runs;
+        ExternalSorter s = new ExternalSorter(Utility.getTupleDesc(2),
+                new TupleComparator(0, true), memory);
+        TupleIterator it = tuples(rows);
+        it.open();
+        while (it.hasNext())
+            s.add(it.next());
+        ExternalSorter.Cursor c = s.cursor();
+        assertTrue(s.numRuns() > ExternalSorter.MAX_FAN_IN);
+        assertEquals(1, s.numMergePasses());
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        Tuple t;
+        while ((t = c.next()) != null)
+            res.add(SystemTestUtil.tupleToList(t));
+        c.close();
+        s.delete();
+        assertEquals(sorted(rows, true), res);
+    }
+
+    /**
+     * String keys are merged through their Field comparison
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] data = new Object[2 * 300];
+        Random r = new Random(4);
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            String k = "k" + r.nextInt(1000);
+            keys.add(k);
+            data[2 * i] = k;
+            data[2 * i + 1] = i;
+        }
+        Collections.sort(keys);
+        OrderBy o = new OrderBy(0, true, TestUtil.createTupleList(2, data), 7);
+        o.open();
+        for (String k : keys)
+            assertEquals(k, ((StringField) o.next().getField(0)).getValue());
+        assertTrue(!o.hasNext());
+        o.close();
+    }
+
+    /** Rows of (a, b, row number) with few distinct a and b */
+    private static ArrayList<ArrayList<Integer>> randomRows3(int rows, long seed) {
+        Random r = new Random(seed);
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(r.nextInt(10) - 5);
+            row.add(r.nextBoolean() ? Integer.MIN_VALUE + r.nextInt(3) : Integer.MAX_VALUE - r.nextInt(3));
+            row.add(i);
+            res.add(row);
+        }
+        return res;
+    }
+
+    private static TupleIterator tuples3(ArrayList<ArrayList<Integer>> rows) {
+        int[] data = new int[3 * rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            for (int j = 0; j < 3; j++)
+                data[3 * i + j] = rows.get(i).get(j);
+        }
+        return TestUtil.createTupleList(3, data);
+    }
+
+    /**
+     * Several keys with mixed directions, in memory and spilled, with the
+     * stable order of a sort on the rows
+     */
+    @Test public void multipleKeys() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = randomRows3(4000, 5);
+        final boolean[][] dirs = { { true, false }, { false, true }, { false, false } };
+        for (final boolean[] asc : dirs) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(rows);
+            Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+                public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                    for (int f = 0; f < 2; f++) {
+                        int c = a.get(f).compareTo(b.get(f));
+                        if (c != 0)
+                            return asc[f] ? c : -c;
+                    }
+                    return 0;
+                }
+            });
+            for (int memory : new int[] { 300, 10000 }) {
+                OrderBy o = new OrderBy(new int[] { 0, 1 }, asc, tuples3(rows), memory);
+                o.open();
+                assertEquals(memory < rows.size(), o.getSpilledRuns() > 0);
+                assertEquals(expected, SystemTestUtil.remaining(o));
+                o.close();
+            }
+        }
+    }
+
+    /**
+     * The order of normalized prefixes never contradicts the comparator, and
+     * decides it whenever the prefix holds the whole key
+     */
+    @Test public void prefixOrder() throws Exception {
+        Random r = new Random(6);
+        String[] strings = { "", "a", "a\u0000", "ab", "abc", "abcd", "abcde", "abcdf", "b",
+                "abcdefghij", "abcdefghik", "\u00e9", "a\u00e9", "\u0800x", "\ud800", "\ue000", "\uffff" };
+        int[] ints = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(ints[r.nextInt(ints.length)]));
+            t.setField(1, new StringField(strings[r.nextInt(strings.length)], Type.STRING_LEN));
+            t.setField(2, new IntField(ints[r.nextInt(ints.length)]));
+            tuples.add(t);
+        }
+        int[][] keys = { { 0 }, { 2, 0 }, { 1 }, { 0, 1 }, { 1, 2 }, { 0, 2, 1 } };
+        for (int[] fields : keys) {
+            for (int d = 0; d < 1 << fields.length; d++) {
+                boolean[] asc = new boolean[fields.length];
+                for (int f = 0; f < fields.length; f++)
+                    asc[f] = (d & (1 << f)) != 0;
+                TupleComparator cmp = new TupleComparator(fields, asc);
+                boolean exact = cmp.prefixIsKey(td);
+                for (Tuple a : tuples) {
+                    for (Tuple b : tuples) {
+                        int c = Integer.signum(cmp.compare(a, b));
+                        int p = Integer.signum(Long.compareUnsigned(cmp.prefix(a), cmp.prefix(b)));
+                        assertTrue(p == 0 ? !exact || c == 0 : p == c);
+                        assertEquals(c, Integer.signum(cmp.compare(cmp.prefix(a), a,
+                                cmp.prefix(b), b, exact)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The parser takes several ORDER BY fields
+     */
+    @Test public void parsedKeys() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, 20, null, null, "c");
+        Database.getCatalog().addTable(f, "multi");
+        TransactionId tid = new TransactionId();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("multi", new TableStats(f.getId(), 1));
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT m.c0, m.c1, m.c2 FROM multi m ORDER BY m.c1 DESC, m.c0, m.c2 DESC;")
+                .physicalPlan(tid, stats, false);
+        OpIterator expected = new OrderBy(new int[] { 1, 0, 2 }, new boolean[] { false, true, false },
+                new SeqScan(tid, f.getId()));
+        plan.open();
+        expected.open();
+        TestUtil.compareDbIterators(expected, plan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageFilterTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(3, 3000, 40, null, null, "c");
+        Database.getCatalog().addTable(table, "pf");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        PageFilter.setEnabled(true);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HeapPage page(int pgNo) throws Exception {
+        return (HeapPage) Database.getBufferPool().getPage(tid, table.getId(), pgNo, 0,
+                Permissions.READ_ONLY);
+    }
+
+    /** @return the slots of page that select() finds with the given filter */
+    private static int[] select(HeapPage page, Predicate[] preds, PageFilter filter) {
+        int[] out = new int[page.getNumSlots()];
+        return Arrays.copyOf(out, page.select(preds, filter, out));
+    }
+
+    /**
+     * A generated filter selects the slots that matches() accepts, for every
+     * operator and for operands at the ends of the int range
+     */
+    @Test public void sameAsMatches() throws Exception {
+        Random r = new Random(1);
+        Predicate.Op[] ops = Predicate.Op.values();
+        int[] edges = { Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE };
+        for (int i = 0; i < 100; i++) {
+            Predicate[] preds = new Predicate[1 + r.nextInt(3)];
+            for (int k = 0; k < preds.length; k++) {
+                int v = r.nextInt(8) == 0 ? edges[r.nextInt(edges.length)] : r.nextInt(40);
+                preds[k] = new Predicate(r.nextInt(3), ops[r.nextInt(ops.length)], new IntField(v));
+            }
+            for (int pgNo = 0; pgNo < table.numPages(); pgNo++) {
+                HeapPage page = page(pgNo);
+                PageFilter filter = PageFilter.compile(page, preds);
+                assertNotNull(filter);
+                assertTrue(Arrays.equals(select(page, preds, null), select(page, preds, filter)));
+            }
+        }
+    }
+
+    /**
+     * Filters are shared by scans with the same predicates, and not
+     * generated for string fields or when turned off
+     */
+    @Test public void compile() throws Exception {
+        HeapPage page = page(0);
+        Predicate[] preds = { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(7)) };
+        assertSame(PageFilter.compile(page, preds), PageFilter.compile(page,
+                new Predicate[] { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(7)) }));
+        assertNull(PageFilter.compile(page, new Predicate[0]));
+        assertNull(PageFilter.compile(page, new Predicate[] {
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("7", Type.STRING_LEN)) }));
+        PageFilter.setEnabled(false);
+        assertNull(PageFilter.compile(page, preds));
+    }
+
+    /**
+     * A page a tuple was inserted into is tested tuple by tuple, and a slot
+     * deleted after it was selected is not returned
+     */
+    @Test public void insertedAndDeleted() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0),
+                page(0).getPageData());
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(1000)) };
+        PageFilter filter = PageFilter.compile(page, preds);
+        assertEquals(0, select(page, preds, filter).length);
+
+        Tuple t = page.tuple(select(page, new Predicate[0], null)[0]);
+        page.deleteTuple(t);
+        Tuple n = new Tuple(table.getTupleDesc());
+        for (int i = 0; i < 3; i++)
+            n.setField(i, new IntField(1000));
+        page.insertTuple(n);
+        int[] found = select(page, preds, filter);
+        assertEquals(1, found.length);
+        assertEquals(n.getRecordId().getTupleNumber(), found[0]);
+        assertTrue(page.stillSelected(found[0], preds));
+        page.deleteTuple(n);
+        assertTrue(!page.stillSelected(found[0], preds));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFilterTest.class);
+    }
+}
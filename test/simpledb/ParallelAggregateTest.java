@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(4, 20000, 50, null, null, "c");
+        Database.getCatalog().addTable(table, "par");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        ParallelAggregate.setEnabled(false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static final int[] AFIELDS = { 2, 3, 3, 2, 3 };
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN, Aggregator.Op.AVG };
+
+    /**
+     * The aggregates, and the order of their groups, are those of a
+     * single-threaded Aggregate for any number of threads
+     */
+    @Test public void sameAsSerial() throws Exception {
+        for (int[] gfields : new int[][] { {}, { 0 }, { 0, 1 } }) {
+            ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new Aggregate(
+                    new SeqScan(tid, table.getId()), AFIELDS, gfields, OPS));
+            for (int threads : new int[] { 1, 2, 3, 8 }) {
+                ParallelAggregate a = new ParallelAggregate(new SeqScan(tid, table.getId()),
+                        AFIELDS, gfields, OPS, threads);
+                assertEquals(expected, SystemTestUtil.drain(a));
+            }
+        }
+    }
+
+    /**
+     * Filters under the aggregate are applied by every thread
+     */
+    @Test public void filters() throws Exception {
+        OpIterator serial = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10)),
+                        new SeqScan(tid, table.getId())));
+        OpIterator parallel = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10)),
+                        new SeqScan(tid, table.getId())));
+        int[] gfields = { 0 };
+        assertEquals(SystemTestUtil.drain(new Aggregate(serial, AFIELDS, gfields, OPS)),
+                SystemTestUtil.drain(new ParallelAggregate(parallel, AFIELDS, gfields, OPS, 4)));
+    }
+
+    /**
+     * An AVG is taken once over the summed partial sums and counts, so sums
+     * past the int range do not wrap
+     */
+    @Test public void avgOfPartials() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        int big = Integer.MAX_VALUE - 1;
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> r = new ArrayList<Integer>();
+            r.add(i % 2);
+            r.add(i % 2 == 0 ? big : -big);
+            rows.add(r);
+        }
+        File temp = File.createTempFile("par", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(rows, temp, BufferPool.getPageSize(), 2);
+        HeapFile f = Utility.openHeapFile(2, temp);
+        ParallelAggregate a = new ParallelAggregate(new SeqScan(tid, f.getId()),
+                new int[] { 1, 1 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.COUNT }, 4);
+        ArrayList<ArrayList<Integer>> res = SystemTestUtil.drain(a);
+        assertEquals(2, res.size());
+        assertEquals(big, (int) res.get(0).get(1));
+        assertEquals(-big, (int) res.get(1).get(1));
+        assertEquals(1500, (int) res.get(1).get(2));
+    }
+
+    /**
+     * rewind() returns the same groups again
+     */
+    @Test public void rewind() throws Exception {
+        ParallelAggregate a = new ParallelAggregate(new SeqScan(tid, table.getId()),
+                AFIELDS, new int[] { 1 }, OPS, 2);
+        a.open();
+        int n = 0;
+        while (a.hasNext()) {
+            a.next();
+            n++;
+        }
+        a.rewind();
+        int again = 0;
+        while (a.hasNext()) {
+            a.next();
+            again++;
+        }
+        a.close();
+        assertTrue(n > 0);
+        assertEquals(n, again);
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && contains(child, c))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The planner uses a ParallelAggregate over a scan only when enabled
+     */
+    @Test public void planning() throws Exception {
+        Parser p = new Parser();
+        String query = "SELECT p.c0, SUM(p.c2), AVG(p.c3) FROM par p WHERE p.c1 > 5 GROUP BY p.c0;";
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("par", new TableStats(table.getId(), 1));
+        OpIterator serial = p.generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        assertFalse(contains(serial, ParallelAggregate.class));
+        ParallelAggregate.setEnabled(true);
+        OpIterator parallel = p.generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        assertTrue(contains(parallel, ParallelAggregate.class));
+        assertEquals(SystemTestUtil.drain(serial), SystemTestUtil.drain(parallel));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+    private static final JoinPredicate EQ = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    @After public void tearDown() {
+        ParallelHashJoin.setEnabled(false);
+    }
+
+    /**
+     * The join gives the rows of a single-threaded hash join, in the same
+     * order, for any number of threads and batches of child2.
+     */
+    @Test public void sameRowsInOrder() throws Exception {
+        for (int keys : new int[] { 100, 5000, 100000 }) {
+            ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new HybridHashJoin(EQ,
+                    TestUtil.randomTuples(2, 1000, keys, 1), TestUtil.randomTuples(3, 20000, keys, 2)));
+            for (int threads : new int[] { 1, 2, 4 }) {
+                ParallelHashJoin j = new ParallelHashJoin(EQ,
+                        TestUtil.randomTuples(2, 1000, keys, 1),
+                        TestUtil.randomTuples(3, 20000, keys, 2), threads);
+                assertEquals(expected, SystemTestUtil.drain(j));
+                assertTrue(j.getPartitions() >= threads);
+            }
+        }
+    }
+
+    /**
+     * Unit test for ParallelHashJoin.rewind(), which keeps the table
+     */
+    @Test public void rewind() throws Exception {
+        ParallelHashJoin j = new ParallelHashJoin(EQ,
+                TestUtil.randomTuples(2, 500, 100, 1), TestUtil.randomTuples(3, 10000, 100, 2), 3);
+        ArrayList<ArrayList<Integer>> first = SystemTestUtil.drain(j);
+        j.open();
+        while (j.hasNext())
+            j.next();
+        assertTrue(TestUtil.checkExhausted(j));
+        j.rewind();
+        ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+        while (j.hasNext())
+            again.add(SystemTestUtil.tupleToList(j.next()));
+        j.close();
+        assertEquals(first, again);
+    }
+
+    /**
+     * String keys whose hashes collide share a chain but do not match.
+     */
+    @Test public void stringKeys() throws Exception {
+        // "Aa" and "BB" have the same hashCode
+        Object[] left = new Object[] { "Aa", 1, "BB", 2, "Aa", 3, "x", 4 };
+        Object[] right = new Object[] { "BB", -1, "Aa", -2, "y", -3 };
+        ParallelHashJoin j = new ParallelHashJoin(EQ, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right), 2);
+        OpIterator expected = TestUtil.createTupleList(4, new Object[] {
+                "BB", 2, "BB", -1,
+                "Aa", 1, "Aa", -2,
+                "Aa", 3, "Aa", -2 });
+        j.open();
+        TestUtil.compareDbIterators(expected, j);
+        j.close();
+    }
+
+    /**
+     * The planner picks the parallel join for equality joins only when
+     * enabled.
+     */
+    @Test public void planning() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 10, 5, null, null, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 10, 5, null, null, "c");
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, f1.getId(), "a"),
+                new SeqScan(tid, f2.getId(), "b")) instanceof HybridHashJoin);
+        ParallelHashJoin.setEnabled(true);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, f1.getId(), "a"),
+                new SeqScan(tid, f2.getId(), "b")) instanceof ParallelHashJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PredicatePushdownTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 40, null, null, "c");
+        Database.getCatalog().addTable(table, "push");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        FusedScan.setEnabled(true);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator filters(OpIterator plan, Predicate[] preds) {
+        for (Predicate p : preds)
+            plan = new Filter(p, plan);
+        return plan;
+    }
+
+    /**
+     * A scan with predicates returns the tuples of Filters over a plain scan,
+     * for every int operator, and again after rewind()
+     */
+    @Test public void sameAsFilters() throws Exception {
+        Random r = new Random(1);
+        Predicate.Op[] ops = Predicate.Op.values();
+        for (int i = 0; i < 30; i++) {
+            Predicate[] preds = new Predicate[1 + r.nextInt(3)];
+            for (int k = 0; k < preds.length; k++)
+                preds[k] = new Predicate(r.nextInt(3), ops[r.nextInt(ops.length)],
+                        new IntField(r.nextInt(40)));
+            ArrayList<ArrayList<Integer>> expected =
+                    SystemTestUtil.drain(filters(new SeqScan(tid, table.getId()), preds));
+            SeqScan pushed = new SeqScan(tid, table.getId(), "push", preds);
+            assertEquals(expected, SystemTestUtil.drain(pushed));
+            pushed.open();
+            while (pushed.hasNext())
+                pushed.next();
+            pushed.rewind();
+            int n = 0;
+            while (pushed.hasNext()) {
+                pushed.next();
+                n++;
+            }
+            pushed.close();
+            assertEquals(expected.size(), n);
+        }
+    }
+
+    /**
+     * A page read from disk builds the tuples of the slots that match and
+     * no others
+     */
+    @Test public void buildsOnlyMatches() throws Exception {
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)) };
+        int matched = 0;
+        for (int s = 0; s < page.getNumSlots(); s++) {
+            if (!page.isSlotUsed(s))
+                continue;
+            if (page.matches(s, preds)) {
+                matched++;
+                assertTrue(page.tuple(s).getInt(0) < 5);
+            } else {
+                assertNull(page.tuples.get(s));
+            }
+        }
+        assertTrue(matched > 0);
+        // the bytes written back are those read
+        assertTrue(java.util.Arrays.equals(
+                table.readPage(page.getId()).getPageData(), page.getPageData()));
+    }
+
+    /**
+     * A tuple inserted into a slot is tested as inserted, not as the bytes
+     * the page was read with, and a deleted one is not returned
+     */
+    @Test public void insertedAndDeleted() throws Exception {
+        Tuple t = new Tuple(table.getTupleDesc());
+        for (int i = 0; i < 3; i++)
+            t.setField(i, new IntField(1000));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(1000)) };
+        ArrayList<ArrayList<Integer>> found =
+                SystemTestUtil.drain(new SeqScan(tid, table.getId(), "push", preds));
+        assertEquals(1, found.size());
+        assertEquals(1000, (int) found.get(0).get(2));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, SystemTestUtil.drain(new SeqScan(tid, table.getId(), "push", preds)).size());
+    }
+
+    /**
+     * Predicates on string fields are tested on built tuples
+     */
+    @Test public void strings() throws Exception {
+        File text = File.createTempFile("push", ".txt");
+        text.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        Random r = new Random(2);
+        for (int i = 0; i < 2000; i++)
+            w.write("s" + r.nextInt(20) + "," + r.nextInt(100) + "\n");
+        w.close();
+        File data = File.createTempFile("push", ".dat");
+        data.deleteOnExit();
+        Type[] types = { Type.STRING_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, types);
+        HeapFile f = new HeapFile(data, new TupleDesc(types, new String[] { "s", "i" }));
+        Database.getCatalog().addTable(f, "pushs");
+
+        Predicate[] preds = { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)),
+                new Predicate(0, Predicate.Op.EQUALS, new StringField("s7", Type.STRING_LEN)) };
+        OpIterator expected = filters(new SeqScan(tid, f.getId()), preds);
+        OpIterator pushed = new SeqScan(tid, f.getId(), "pushs", preds);
+        expected.open();
+        pushed.open();
+        assertTrue(pushed.hasNext());
+        TestUtil.compareDbIterators(expected, pushed);
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && contains(child, c))
+                return true;
+        }
+        return false;
+    }
+
+    /** @return the SeqScan at the bottom of plan's leftmost path */
+    private static SeqScan scanOf(OpIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    /**
+     * The planner pushes WHERE predicates into the scan of a heap file when
+     * it does not fuse them
+     */
+    @Test public void planning() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("push", new TableStats(table.getId(), 1));
+        String query = "SELECT p.c0, p.c2 FROM push p WHERE p.c1 > 10 AND p.c2 < 30;";
+        Parser parser = new Parser();
+        OpIterator fused = parser.generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        FusedScan.setEnabled(false);
+        OpIterator plan = parser.generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        assertFalse(contains(plan, Filter.class));
+        SeqScan scan = scanOf(plan);
+        assertNotNull(scan);
+        assertEquals(2, scan.getPredicates().length);
+        assertEquals(SystemTestUtil.drain(fused), SystemTestUtil.drain(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicatePushdownTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final JoinPredicate EQ = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    /**
+     * Unsorted inputs with duplicate keys on both sides are sorted, in memory
+     * or in runs on disk, and give the rows of a hash join in key order.
+     */
+    @Test public void unsortedInputs() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new HashEquiJoin(EQ,
+                TestUtil.randomTuples(2, 400, 50, 1), TestUtil.randomTuples(3, 300, 50, 2)));
+        for (int memoryTuples : new int[] { 1000, 7 }) {
+            SortMergeJoin j = new SortMergeJoin(EQ, TestUtil.randomTuples(2, 400, 50, 1),
+                    TestUtil.randomTuples(3, 300, 50, 2), memoryTuples);
+            SystemTestUtil.matchTuples(j, expected);
+            j.open();
+            assertEquals(memoryTuples == 7, j.getSpilledRuns() > 0);
+            int last = Integer.MIN_VALUE;
+            while (j.hasNext()) {
+                int key = j.next().getInt(0);
+                assertTrue(key >= last);
+                last = key;
+            }
+            j.close();
+        }
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        SortMergeJoin j = new SortMergeJoin(EQ, TestUtil.randomTuples(2, 100, 10, 1),
+                TestUtil.randomTuples(2, 100, 10, 2), 16);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        assertTrue(TestUtil.checkExhausted(j));
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n--;
+        }
+        j.close();
+        assertEquals(0, n);
+    }
+
+    /**
+     * Scans of B+ trees keyed on the join field are merged without sorting,
+     * and the planner picks a SortMergeJoin for them.
+     */
+    @Test public void indexOrder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f1 = BTreeUtility.createRandomBTreeFile(2, 2000, 300, null, tuples1, 0);
+        BTreeFile f2 = BTreeUtility.createRandomBTreeFile(2, 1000, 300, null, tuples2, 0);
+        f1 = BTreeUtility.openBTreeFile(2, "c", f1.getFile(), 0);
+        f2 = BTreeUtility.openBTreeFile(2, "c", f2.getFile(), 0);
+        TransactionId tid = new TransactionId();
+        OpIterator s1 = new SeqScan(tid, f1.getId(), "a");
+        OpIterator s2 = new SeqScan(tid, f2.getId(), "b");
+        assertTrue(SortMergeJoin.isSortedOn(s1, 0));
+        assertFalse(SortMergeJoin.isSortedOn(s1, 1));
+        assertTrue(SortMergeJoin.isSortedOn(
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5)), s1), 0));
+
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new HashEquiJoin(EQ, s1, s2));
+        SortMergeJoin j = new SortMergeJoin(EQ, s1, s2, 10);
+        SystemTestUtil.matchTuples(j, expected);
+        j.open();
+        assertEquals(0, j.getSpilledRuns());
+        j.close();
+        assertTrue(SortMergeJoin.isSortedOn(j, 0));
+        assertTrue(SortMergeJoin.isSortedOn(j, 2));
+
+        OpIterator planned = JoinOptimizer.instantiateJoin(
+                new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS), s1, s2);
+        assertTrue(planned instanceof SortMergeJoin);
+        planned = JoinOptimizer.instantiateJoin(
+                new LogicalJoinNode("a", "b", "c1", "c0", Predicate.Op.EQUALS), s1, s2);
+        assertTrue(planned instanceof HybridHashJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * String keys are merged in the order OrderBy sorts them
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] left = new Object[120];
+        Object[] right = new Object[80];
+        for (int i = 0; i < 60; i++) {
+            left[2 * i] = "k" + (i % 15);
+            left[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 40; i++) {
+            right[2 * i] = "k" + (i % 20);
+            right[2 * i + 1] = -i;
+        }
+        OpIterator expected = new HashEquiJoin(EQ, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right));
+        SortMergeJoin j = new SortMergeJoin(EQ, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right), 4);
+        expected.open();
+        j.open();
+        TestUtil.matchAllTuples(expected, j);
+        int n = 0;
+        j.rewind();
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        // k0-k14 each match 4 x 2 times
+        assertEquals(120, n);
+        j.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
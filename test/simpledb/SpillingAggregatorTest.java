@@ -0,0 +1,211 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SpillingAggregatorTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 2000, null, null, "c");
+        Database.getCatalog().addTable(table, "spill");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static final int[] GROUPS = { 0, 1 };
+    private static final int[] AFIELDS = { 2, 2, 2, 1 };
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private static final Comparator<List<Integer>> ROW_ORDER = new Comparator<List<Integer>>() {
+        public int compare(List<Integer> a, List<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+    };
+
+    private static ArrayList<ArrayList<Integer>> drainSorted(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            res.add(SystemTestUtil.tupleToList(it.next()));
+        Collections.sort(res, ROW_ORDER);
+        return res;
+    }
+
+    private void mergeAll(Aggregator agg) throws Exception {
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.open();
+        while (ss.hasNext())
+            agg.mergeTupleIntoGroup(ss.next());
+        ss.close();
+    }
+
+    /** The aggregates computed in memory, without a budget */
+    private ArrayList<ArrayList<Integer>> expected() throws Exception {
+        MultiAggregator agg = new MultiAggregator(table.getTupleDesc(), GROUPS, AFIELDS, OPS);
+        mergeAll(agg);
+        OpIterator it = agg.iterator();
+        it.open();
+        return drainSorted(it);
+    }
+
+    /**
+     * Groups over budget are spilled, aggregated from disk, and the spill
+     * files are removed afterwards
+     */
+    @Test public void spills() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = expected();
+        File dir = Files.createTempDirectory("spillagg").toFile();
+        File was = TupleSpillFile.getDirectory();
+        TupleSpillFile.setDirectory(dir);
+        try {
+            SpillingAggregator agg = new SpillingAggregator(table.getTupleDesc(), GROUPS, AFIELDS,
+                    OPS, expected.size() / 4);
+            mergeAll(agg);
+            assertTrue(agg.getSpilledPartitions() > 0);
+            assertTrue(agg.getSpilledTuples() > 0);
+            assertEquals(agg.getSpilledTuples() * table.getTupleDesc().getSize(),
+                    agg.getSpilledBytes());
+            assertEquals(0, agg.getRecursionDepth());
+            assertTrue(dir.list().length > 0);
+
+            OpIterator it = agg.iterator();
+            it.open();
+            assertEquals(expected, drainSorted(it));
+            it.rewind();
+            assertEquals(expected, drainSorted(it));
+            it.close();
+            agg.delete();
+            assertEquals(0, dir.list().length);
+        } finally {
+            TupleSpillFile.setDirectory(was);
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Partitions that are still over budget are split again
+     */
+    @Test public void recursion() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = expected();
+        SpillingAggregator agg = new SpillingAggregator(table.getTupleDesc(), GROUPS, AFIELDS,
+                OPS, 8);
+        mergeAll(agg);
+        OpIterator it = agg.iterator();
+        it.open();
+        assertEquals(expected, drainSorted(it));
+        it.close();
+        agg.delete();
+        assertTrue(agg.getRecursionDepth() > 0);
+    }
+
+    /**
+     * Groups that fit are never written to disk
+     */
+    @Test public void fits() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = expected();
+        SpillingAggregator agg = new SpillingAggregator(table.getTupleDesc(), GROUPS, AFIELDS,
+                OPS, expected.size());
+        mergeAll(agg);
+        OpIterator it = agg.iterator();
+        it.open();
+        assertEquals(expected, drainSorted(it));
+        assertEquals(0, agg.getSpilledPartitions());
+    }
+
+    /**
+     * String keys are partitioned by their hash as well
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] rows = new Object[3 * 200];
+        for (int i = 0; i < 200; i++) {
+            rows[3 * i] = "k" + (i % 50);
+            rows[3 * i + 1] = i % 3;
+            rows[3 * i + 2] = i;
+        }
+        OpIterator child = TestUtil.createTupleList(3, rows);
+        int[] groups = { 0 };
+        int[] afields = { 2, 1 };
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MAX };
+        MultiAggregator memory = new MultiAggregator(child.getTupleDesc(), groups, afields, ops);
+        SpillingAggregator spill = new SpillingAggregator(child.getTupleDesc(), groups, afields,
+                ops, 5);
+        child.open();
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            memory.mergeTupleIntoGroup(t);
+            spill.mergeTupleIntoGroup(t);
+        }
+        assertTrue(spill.getSpilledPartitions() > 0);
+        OpIterator expected = memory.iterator();
+        expected.open();
+        OpIterator it = spill.iterator();
+        it.open();
+        // spilled groups come last, so only compare the sets of groups
+        TestUtil.matchAllTuples(expected, it);
+        it.rewind();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(memory.numGroups(), n);
+        it.close();
+        spill.delete();
+    }
+
+    /**
+     * Aggregate spills grouped aggregates over its budget and reports what it
+     * spilled
+     */
+    @Test public void aggregateOperator() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = expected();
+        Aggregate a = new Aggregate(new SeqScan(tid, table.getId()), AFIELDS, GROUPS, OPS, 100);
+        a.open();
+        assertEquals(expected, drainSorted(a));
+        assertTrue(a.getSpilledPartitions() > 0);
+        assertTrue(a.getSpilledBytes() > 0);
+        a.close();
+
+        a = new Aggregate(new SeqScan(tid, table.getId()), AFIELDS, GROUPS, OPS);
+        a.open();
+        assertEquals(expected, drainSorted(a));
+        a.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillingAggregatorTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StreamingAggregateTest extends SimpleDbTestBase {
+
+    private static final int[] AFIELDS = { 1, 2, 2, 1, 2 };
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN, Aggregator.Op.AVG };
+
+    private static final Comparator<ArrayList<Integer>> BY_KEY = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            return a.get(0).compareTo(b.get(0));
+        }
+    };
+
+    /**
+     * Over sorted input the groups are those of a hash Aggregate, in key
+     * order, whichever direction the input is sorted in
+     */
+    @Test public void sameAsHash() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(
+                new Aggregate(TestUtil.randomTuples(3, 5000, 300, 1), AFIELDS, new int[] { 0 }, OPS));
+        Collections.sort(expected, BY_KEY);
+        StreamingAggregate a = new StreamingAggregate(
+                new OrderBy(0, true, TestUtil.randomTuples(3, 5000, 300, 1)), AFIELDS, 0, OPS);
+        assertEquals(expected, SystemTestUtil.drain(a));
+
+        Collections.reverse(expected);
+        a = new StreamingAggregate(new OrderBy(0, false, TestUtil.randomTuples(3, 5000, 300, 1)),
+                AFIELDS, 0, OPS);
+        assertEquals(expected, SystemTestUtil.drain(a));
+    }
+
+    /**
+     * String group keys
+     */
+    @Test public void stringKeys() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new Object[] {
+                "a", 1,
+                "a", 2,
+                "b", 3,
+                "c", 4,
+                "c", 6 });
+        StreamingAggregate a = new StreamingAggregate(child, new int[] { 1, 1 }, 0,
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG });
+        a.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(3, new Object[] {
+                "a", 3, 1,
+                "b", 3, 3,
+                "c", 10, 5 }), a);
+    }
+
+    /**
+     * The first group is returned after reading just past it, and rewind()
+     * starts over
+     */
+    @Test public void firstGroupEarly() throws Exception {
+        final int[] read = new int[1];
+        TupleIterator rows = TestUtil.createTupleList(2, new int[] {
+                1, 10, 1, 20, 2, 30, 3, 40, 3, 50, 3, 60 });
+        TupleIterator child = new TupleIterator(rows.getTupleDesc(), rows.tuples) {
+            private static final long serialVersionUID = 1L;
+
+            public Tuple next() {
+                read[0]++;
+                return super.next();
+            }
+        };
+        StreamingAggregate a = new StreamingAggregate(child, new int[] { 1 }, 0,
+                new Aggregator.Op[] { Aggregator.Op.SUM });
+        a.open();
+        assertTrue(a.hasNext());
+        assertEquals(30, ((IntField) a.next().getField(1)).getValue());
+        assertEquals(3, read[0]);
+        a.rewind();
+        assertEquals(3, drainCount(a));
+        a.close();
+    }
+
+    private static int drainCount(OpIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && contains(child, c))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The planner streams a GROUP BY on the key of a B+ tree, and hashes a
+     * GROUP BY on any other field
+     */
+    @Test public void planning() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(3, 3000, 200, null, null, 0);
+        f = BTreeUtility.openBTreeFile(3, "c", f.getFile(), 0);
+        Database.getCatalog().addTable(f, "stream");
+        TransactionId tid = new TransactionId();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("stream", new TableStats(f.getId(), 1));
+        Parser p = new Parser();
+
+        OpIterator keyed = p.generateLogicalPlan(tid,
+                "SELECT s.c0, SUM(s.c1), COUNT(s.c2) FROM stream s WHERE s.c2 > 10 GROUP BY s.c0;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(keyed, StreamingAggregate.class));
+        ArrayList<ArrayList<Integer>> expected = SystemTestUtil.drain(new Aggregate(
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)),
+                        new SeqScan(tid, f.getId())),
+                new int[] { 1, 2 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }));
+        Collections.sort(expected, BY_KEY);
+        assertEquals(expected, SystemTestUtil.drain(keyed));
+
+        OpIterator other = p.generateLogicalPlan(tid,
+                "SELECT s.c1, SUM(s.c2) FROM stream s GROUP BY s.c1;")
+                .physicalPlan(tid, stats, false);
+        assertFalse(contains(other, StreamingAggregate.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StreamingAggregateTest.class);
+    }
+}
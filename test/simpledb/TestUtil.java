@@ -38,6 +38,21 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return an open OpIterator over rows of width int fields whose first
+     *   field is a random key in [0, keys) and whose other fields are
+     *   distinct, half of them negative, so rows with equal keys can be told
+     *   apart
+     * @param seed the seed of the keys
+     */
+    public static TupleIterator randomTuples(int width, int rows, int keys, long seed) {
+        Random r = new Random(seed);
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i % width == 0 ? r.nextInt(keys) : i - data.length / 2;
+        return createTupleList(width, data);
+    }
+
     /**
      * @return a OpIterator over a list of tuples constructed over the data
      *   provided in the constructor. This iterator is already open.
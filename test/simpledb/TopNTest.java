@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static <T> ArrayList<T> prefix(ArrayList<T> l, int n) {
+        return new ArrayList<T>(l.subList(0, Math.min(n, l.size())));
+    }
+
+    /**
+     * The tuples are the first n of a stable OrderBy, ties included, in
+     * either direction
+     */
+    @Test public void sameAsOrderBy() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            ArrayList<ArrayList<Integer>> sorted = SystemTestUtil.drain(new OrderBy(0, asc,
+                    TestUtil.randomTuples(2, 3000, 40, 1)));
+            for (int n : new int[] { 0, 1, 7, 100, 3000, 5000 }) {
+                TopN t = new TopN(0, asc, TestUtil.randomTuples(2, 3000, 40, 1), n);
+                assertEquals(prefix(sorted, n), SystemTestUtil.drain(t));
+            }
+        }
+    }
+
+    /**
+     * rewind() returns the same tuples again without reading the child
+     */
+    @Test public void rewind() throws Exception {
+        TopN t = new TopN(0, true, TestUtil.randomTuples(2, 500, 500, 2), 20);
+        t.open();
+        ArrayList<ArrayList<Integer>> first = new ArrayList<ArrayList<Integer>>();
+        while (t.hasNext())
+            first.add(SystemTestUtil.tupleToList(t.next()));
+        t.rewind();
+        ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+        while (t.hasNext())
+            again.add(SystemTestUtil.tupleToList(t.next()));
+        t.close();
+        assertEquals(20, first.size());
+        assertEquals(first, again);
+    }
+
+    /**
+     * A Limit reads no more of its child than it returns
+     */
+    @Test public void limitStopsEarly() throws Exception {
+        final int[] read = new int[1];
+        TupleIterator rows = TestUtil.randomTuples(2, 1000, 10, 3);
+        TupleIterator child = new TupleIterator(rows.getTupleDesc(), rows.tuples) {
+            private static final long serialVersionUID = 1L;
+
+            public Tuple next() {
+                read[0]++;
+                return super.next();
+            }
+        };
+        Limit l = new Limit(child, 25);
+        assertEquals(prefix(SystemTestUtil.drain(TestUtil.randomTuples(2, 1000, 10, 3)), 25),
+                SystemTestUtil.drain(l));
+        assertEquals(25, read[0]);
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && contains(child, c))
+                return true;
+        }
+        return false;
+    }
+
+    private static final Comparator<ArrayList<Integer>> BY_KEY = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            return a.get(0).compareTo(b.get(0));
+        }
+    };
+
+    /**
+     * The parser accepts LIMIT; the planner stops a scan in key order of a B+
+     * tree after n tuples and keeps the top n of any other input
+     */
+    @Test public void planning() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 2000, 500, null, null, 0);
+        f = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+        Database.getCatalog().addTable(f, "topn");
+        TransactionId tid = new TransactionId();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("topn", new TableStats(f.getId(), 1));
+        Parser p = new Parser();
+        ArrayList<ArrayList<Integer>> rows = SystemTestUtil.drain(new SeqScan(tid, f.getId()));
+
+        OpIterator keyed = p.generateLogicalPlan(tid,
+                "SELECT t.c0, t.c1 FROM topn t ORDER BY t.c0 LIMIT 10;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(keyed, Limit.class));
+        assertFalse(contains(keyed, TopN.class));
+        assertFalse(contains(keyed, OrderBy.class));
+        assertEquals(prefix(rows, 10), SystemTestUtil.drain(keyed));
+
+        OpIterator desc = p.generateLogicalPlan(tid,
+                "SELECT t.c0, t.c1 FROM topn t ORDER BY t.c0 DESC limit 10;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(desc, TopN.class));
+        ArrayList<ArrayList<Integer>> top = SystemTestUtil.drain(desc);
+        ArrayList<ArrayList<Integer>> byKey = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(byKey, Collections.reverseOrder(BY_KEY));
+        assertEquals(10, top.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals(byKey.get(i).get(0), top.get(i).get(0));
+
+        OpIterator unordered = p.generateLogicalPlan(tid,
+                "SELECT t.c1 FROM topn t WHERE t.c0 > 100 LIMIT 3;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(unordered, Limit.class));
+        assertEquals(3, SystemTestUtil.drain(unordered).size());
+
+        OpIterator all = p.generateLogicalPlan(tid, "SELECT t.c0 FROM topn t ORDER BY t.c0;")
+                .physicalPlan(tid, stats, false);
+        assertFalse(contains(all, Limit.class));
+        assertEquals(rows.size(), SystemTestUtil.drain(all).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A LIMIT applies to the statement it closes only, and not to one in a
+     * string literal
+     */
+    @Test public void limitPerStatement() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, null, "c");
+        Database.getCatalog().addTable(f, "lim");
+        TransactionId tid = new TransactionId();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("lim", new TableStats(f.getId(), 1));
+        Parser p = new Parser();
+        InputStream in = new ByteArrayInputStream(
+                "SELECT t.c0 FROM lim t; SELECT t.c1 FROM lim t LIMIT 2;".getBytes("UTF-8"));
+
+        OpIterator first = p.generateLogicalPlan(tid, Parser.readStatement(in))
+                .physicalPlan(tid, stats, false);
+        assertFalse(contains(first, Limit.class));
+        assertEquals(100, SystemTestUtil.drain(first).size());
+        OpIterator second = p.generateLogicalPlan(tid, Parser.readStatement(in))
+                .physicalPlan(tid, stats, false);
+        assertEquals(2, SystemTestUtil.drain(second).size());
+        assertEquals("", Parser.readStatement(in));
+
+        OpIterator both = p.generateLogicalPlan(tid,
+                "SELECT t.c0 FROM lim t; SELECT t.c1 FROM lim t LIMIT 2;")
+                .physicalPlan(tid, stats, false);
+        assertEquals(100, SystemTestUtil.drain(both).size());
+
+        String quoted = "SELECT t.c0 FROM lim t WHERE t.c1 = 'a; b LIMIT 3;';";
+        assertEquals(quoted, Parser.readStatement(
+                new ByteArrayInputStream((quoted + " SELECT 1;").getBytes("UTF-8"))));
+        assertEquals(quoted, p.stripLimit(quoted));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +31,103 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors of Tuple and IntTuple
+     */
+    @Test public void typedAccessors() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        for (Tuple tup : new Tuple[]{new Tuple(td), new IntTuple(td)}) {
+            tup.setInt(0, -5);
+            tup.setField(1, new StringField("abc", Type.STRING_LEN));
+            tup.setField(2, new IntField(42));
+
+            assertEquals(-5, tup.getInt(0));
+            assertEquals(42, tup.getInt(2));
+            assertEquals("abc", tup.getString(1));
+            assertEquals(new IntField(-5), tup.getField(0));
+            assertEquals("-5 abc 42\n", tup.toString());
+            try {
+                tup.getInt(1);
+                fail("field 1 is a string");
+            } catch (ClassCastException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * IntTuple boxes an int field once and boxes it again only after the
+     * value changes
+     */
+    @Test public void boxedFieldsCached() {
+        IntTuple tup = new IntTuple(Utility.getTupleDesc(2));
+        tup.setInt(0, 3);
+        Field f = tup.getField(0);
+        assertSame(f, tup.getField(0));
+        tup.setInt(0, 4);
+        assertEquals(new IntField(4), tup.getField(0));
+        IntField five = new IntField(5);
+        tup.setField(0, five);
+        assertSame(five, tup.getField(0));
+        assertEquals(5, tup.getInt(0));
+    }
+
+    /**
+     * A JoinedTuple reads the fields of both sides through one index and sees
+     * later changes to them; setting its own fields copies them and leaves
+     * the sides alone
+     */
+    @Test public void joinedTuple() {
+        TupleDesc td1 = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        TupleDesc td2 = Utility.getTupleDesc(2);
+        Tuple left = new Tuple(td1);
+        left.setInt(0, 1);
+        left.setField(1, new StringField("abc", Type.STRING_LEN));
+        Tuple right = Utility.getHeapTuple(new int[]{2, 3});
+
+        Tuple joined = new JoinedTuple(TupleDesc.merge(td1, td2), left, right);
+        assertEquals(4, joined.getTupleDesc().numFields());
+        assertEquals(1, joined.getInt(0));
+        assertEquals("abc", joined.getString(1));
+        assertEquals(new IntField(2), joined.getField(2));
+        assertEquals(3, joined.getInt(3));
+        assertEquals("1 abc 2 3\n", joined.toString());
+
+        // a view of both sides
+        right.setInt(1, 7);
+        assertEquals(7, joined.getInt(3));
+        joined.setInt(0, 5);
+        joined.setField(2, new IntField(6));
+        assertEquals(5, joined.getInt(0));
+        assertEquals(new IntField(6), joined.getField(2));
+        assertEquals("5 abc 6 7\n", joined.toString());
+        assertEquals(1, left.getInt(0));
+        assertEquals(2, right.getInt(0));
+        // a copy from now on
+        right.setInt(1, 8);
+        assertEquals(7, joined.getInt(3));
+    }
+
+    /**
+     * Heap pages hand out IntTuples that predicates can read without boxing
+     */
+    @Test public void heapPageTuples() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                simpledb.systemtest.SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-1, -1), HeapPageReadTest.EXAMPLE_DATA);
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10000));
+        int matched = 0;
+        java.util.Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(IntTuple.class, t.getClass());
+            if (p.filter(t))
+                matched++;
+            assertEquals(p.filter(t), t.getField(1).compare(Predicate.Op.LESS_THAN, new IntField(10000)));
+        }
+        assertEquals(3, matched);
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
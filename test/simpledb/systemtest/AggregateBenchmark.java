@@ -0,0 +1,59 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times a grouped SUM and AVG over a random 3-column table with a
+ * single-threaded Aggregate and with ParallelAggregate on 1 up to N threads,
+ * N being the number of processors unless given. The table is read into the
+ * buffer pool before timing, so the scan does not wait on the disk. Not run
+ * as part of the test suites:
+ *
+ * <pre>
+ * java -cp bin/src:bin/test:lib/junit-4.5.jar simpledb.systemtest.AggregateBenchmark [rows [threads]]
+ * </pre>
+ */
+public class AggregateBenchmark {
+
+    private static final int COLUMNS = 3;
+    private static final int GROUPS = 1000;
+    private static final int REPEAT = 5;
+
+    private static final int[] AFIELDS = {1, 2};
+    private static final int[] GFIELDS = {0};
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.AVG};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 100);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, GROUPS, null, null);
+        TransactionId tid = new TransactionId();
+
+        long serial = time(new Aggregate(new SeqScan(tid, table.getId()), AFIELDS, GFIELDS, OPS));
+        System.out.println("threads\tms\tspeedup");
+        System.out.printf("serial\t%.1f\t1.00x%n", serial / 1e6);
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            long t = time(new ParallelAggregate(new SeqScan(tid, table.getId()), AFIELDS, GFIELDS,
+                    OPS, threads));
+            System.out.printf("%d\t%.1f\t%.2fx%n", threads, t / 1e6, (double) serial / t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the best of REPEAT runs, after as many to warm up, in ns */
+    private static long time(OpIterator agg) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2 * REPEAT; i++) {
+            long start = System.nanoTime();
+            agg.open();
+            while (agg.hasNext())
+                agg.next();
+            agg.close();
+            if (i >= REPEAT)
+                best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times the batch operators against the plans the planner builds for the
+ * same work: a scan with a predicate, the same scan feeding a grouped SUM,
+ * and an equi-join of two tables. The tables are read into the buffer pool
+ * before timing, so the scans do not wait on the disk. Not run as part of
+ * the test suites:
+ *
+ * <pre>
+ * java -Xmx2g -cp bin/src:bin/test:lib/junit-4.5.jar simpledb.systemtest.BatchBenchmark [rows]
+ * </pre>
+ */
+public class BatchBenchmark {
+
+    private static final int GROUPS = 1000;
+    private static final int REPEAT = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 100);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, GROUPS, null, null);
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, rows / 5, rows / 5, null, null);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, rows / 2, rows / 5, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(GROUPS / 2));
+        Predicate[] preds = { p };
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        System.out.println("query\tplan\tms");
+        print("filter", "Filter(SeqScan)", time(new Filter(p, new SeqScan(tid, table.getId()))));
+        print("filter", "SeqScan+preds", time(new SeqScan(tid, table.getId(), "t", preds)));
+        print("filter", "batch", time(new BatchToTuple(new BatchFilter(p,
+                new BatchSeqScan(tid, table.getId())))));
+
+        print("sum", "Aggregate", time(new Aggregate(new Filter(p, new SeqScan(tid, table.getId())),
+                2, 0, Aggregator.Op.SUM)));
+        print("sum", "FusedScan", time(new FusedScan(tid, table.getId(), "t", preds,
+                2, 0, Aggregator.Op.SUM)));
+        print("sum", "batch", time(new BatchToTuple(new BatchAggregate(new BatchFilter(p,
+                new BatchSeqScan(tid, table.getId())), 2, 0, Aggregator.Op.SUM))));
+
+        print("join", "HybridHashJoin", time(new HybridHashJoin(jp,
+                new SeqScan(tid, probe.getId()), new SeqScan(tid, build.getId()))));
+        print("join", "ParallelHashJoin", time(new ParallelHashJoin(jp,
+                new SeqScan(tid, probe.getId()), new SeqScan(tid, build.getId()))));
+        print("join", "batch", time(new BatchToTuple(new BatchHashEquiJoin(jp,
+                new BatchSeqScan(tid, probe.getId()), new BatchSeqScan(tid, build.getId())))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void print(String query, String plan, long ns) {
+        System.out.printf("%s\t%s\t%.1f%n", query, plan, ns / 1e6);
+    }
+
+    /** @return the best of REPEAT runs, after as many to warm up, in ns */
+    private static long time(OpIterator plan) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2 * REPEAT; i++) {
+            long start = System.nanoTime();
+            plan.open();
+            while (plan.hasNext())
+                plan.next();
+            plan.close();
+            if (i >= REPEAT)
+                best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
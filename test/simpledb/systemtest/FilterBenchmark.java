@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Times scans with pushed-down predicates with and without the select loops
+ * {@link PageFilter} generates: a scan with one and with three predicates,
+ * and the same scan feeding a grouped SUM. The table is read into the buffer
+ * pool before timing, so the scans do not wait on the disk. Not run as part
+ * of the test suites:
+ *
+ * <pre>
+ * java -Xmx2g -cp bin/src:bin/test:lib/junit-4.5.jar simpledb.systemtest.FilterBenchmark [rows]
+ * </pre>
+ */
+public class FilterBenchmark {
+
+    private static final int GROUPS = 1000;
+    private static final int REPEAT = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 100);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, GROUPS, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate[] one = { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(GROUPS / 10)) };
+        Predicate[] three = {
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(GROUPS / 4)),
+            new Predicate(1, Predicate.Op.LESS_THAN, new IntField(GROUPS / 2)),
+            new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(0)) };
+        boolean enabled = PageFilter.isEnabled();
+
+        System.out.println("query\tplan\tms");
+        try {
+            for (boolean compiled : new boolean[] { false, true }) {
+                PageFilter.setEnabled(compiled);
+                String plan = compiled ? "PageFilter" : "matches";
+                print("1 pred", plan, time(new SeqScan(tid, table.getId(), "t", one)));
+                print("3 preds", plan, time(new SeqScan(tid, table.getId(), "t", three)));
+                print("sum", plan, time(new FusedScan(tid, table.getId(), "t", three,
+                        2, 0, Aggregator.Op.SUM)));
+            }
+        } finally {
+            PageFilter.setEnabled(enabled);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void print(String query, String plan, long ns) {
+        System.out.printf("%s\t%s\t%.1f%n", query, plan, ns / 1e6);
+    }
+
+    /** @return the best of REPEAT runs, after as many to warm up, in ns */
+    private static long time(OpIterator plan) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2 * REPEAT; i++) {
+            long start = System.nanoTime();
+            plan.open();
+            while (plan.hasNext())
+                plan.next();
+            plan.close();
+            if (i >= REPEAT)
+                best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
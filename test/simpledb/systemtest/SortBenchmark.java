@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Times an OrderBy over random (int key, row number) tuples with buffers
+ * sorted on one thread and with Arrays.parallelSort on all processors, both
+ * with all the tuples in memory and with the default memory budget, which
+ * sorts runs on disk. The tuples are built in memory before timing, so only
+ * the sort is measured. Not run as part of the test suites; 10M rows need
+ * about 4 GB of heap:
+ *
+ * <pre>
+ * java -Xmx4g -cp bin/src:bin/test:lib/junit-4.5.jar simpledb.systemtest.SortBenchmark [rows]
+ * </pre>
+ */
+public class SortBenchmark {
+
+    private static final int REPEAT = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            IntTuple t = new IntTuple(td);
+            t.setInt(0, r.nextInt());
+            t.setInt(1, i);
+            tuples.add(t);
+        }
+
+        System.out.println(rows + " rows, " + Runtime.getRuntime().availableProcessors()
+                + " processors");
+        System.out.println("budget\tserial ms\tparallel ms\tspeedup");
+        boolean was = ExternalSorter.isParallel();
+        for (boolean inMemory : new boolean[] { true, false }) {
+            long[] ns = new long[2];
+            for (int p = 0; p < 2; p++) {
+                ExternalSorter.setParallel(p == 1);
+                ns[p] = time(td, tuples, inMemory);
+            }
+            System.out.printf("%s\t%.1f\t%.1f\t%.2fx%n", inMemory ? "memory" : "default",
+                    ns[0] / 1e6, ns[1] / 1e6, (double) ns[0] / ns[1]);
+        }
+        ExternalSorter.setParallel(was);
+    }
+
+    /** @return the best of REPEAT sorts, after one to warm up, in ns */
+    private static long time(TupleDesc td, ArrayList<Tuple> tuples, boolean inMemory)
+            throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= REPEAT; i++) {
+            TupleIterator child = new TupleIterator(td, tuples);
+            OrderBy sort = inMemory ? new OrderBy(0, true, child, tuples.size())
+                    : new OrderBy(0, true, child);
+            long start = System.nanoTime();
+            sort.open();
+            while (sort.hasNext())
+                sort.next();
+            sort.close();
+            if (i > 0)
+                best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
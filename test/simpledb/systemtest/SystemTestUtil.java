@@ -94,6 +94,31 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * Opens it, reads all of its tuples and closes it.
+     *
+     * @return the tuples of it, in order, as lists of ints
+     */
+    public static ArrayList<ArrayList<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        ArrayList<ArrayList<Integer>> res = remaining(it);
+        it.close();
+        return res;
+    }
+
+    /**
+     * @return the tuples an open iterator has left, in order, as lists of
+     *         ints; the iterator is left open
+     */
+    public static ArrayList<ArrayList<Integer>> remaining(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            res.add(tupleToList(it.next()));
+        return res;
+    }
+
     public static void matchTuples(DbFile f, List<ArrayList<Integer>> tuples)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();